@@ -0,0 +1,351 @@
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+/**
+ * Benchmarks the solvers on seeded synthetic inputs of any size. Each workload writes an input shaped like its
+ * solver's samples, scaled to roughly {@code --scale} lines, to a temporary file, and the solver's {@code run} is
+ * timed on it in-process: first for {@code --warmup} runs that are thrown away, then for {@code --iterations} measured
+ * ones. Reported are the input size, throughput, the fastest, median and slowest of the measured runs, since there are
+ * too few runs for finer percentiles, and the bytes allocated per run by all threads. With {@code -Dsolvers.metrics},
+ * each run is also broken down by the solver's {@link Metrics} timers, such as LogDB's fact loading and query matching,
+ * each reported the same way; a timer sums the time spent in it over all threads.
+ *
+ * <pre>
+ * java -cp out Bench [--solver=NAME] [--scale=N] [--seed=N] [--warmup=N] [--iterations=N] [--args=ARGS]
+ *                    [--match=RATIO] [--skew=EXPONENT]
+ * </pre>
+ * <p>
+ * Without {@code --solver} every workload is run. {@code --args} passes space-separated flags through to the solver,
+ * such as {@code --parallel}, to compare its variants on the same input. {@code --match} sets the share of outside
+ * records that match an internal one, and {@code --skew} the Zipf exponent of LogDB's predicate and constant choice.
+ */
+public class Bench {
+
+    private interface Generator {
+        void generate(Random random, long scale, Options options, PrintWriter out);
+    }
+
+    /**
+     * The input generator for the solver that {@link Solvers#solver} runs by {@code name}.
+     */
+    private static class Workload {
+        final String name;
+        final Generator generator;
+
+        private Workload(String name, Generator generator) {
+            this.name = name;
+            this.generator = generator;
+        }
+    }
+
+    private static class Options {
+        String solver = null;
+        long scale = 100_000;
+        long seed = 1;
+        int warmup = 5;
+        int iterations = 10;
+        String[] solverArgs = new String[0];
+        double matchRatio = 0.3;
+        double skew = 1.1;
+
+        private Options(String[] args) {
+            for (String arg : args) {
+                final String value = arg.substring(arg.indexOf('=') + 1);
+                if (arg.startsWith("--solver=")) {
+                    this.solver = value;
+                } else if (arg.startsWith("--scale=")) {
+                    this.scale = Long.parseLong(value);
+                } else if (arg.startsWith("--seed=")) {
+                    this.seed = Long.parseLong(value);
+                } else if (arg.startsWith("--warmup=")) {
+                    this.warmup = Integer.parseInt(value);
+                } else if (arg.startsWith("--iterations=")) {
+                    this.iterations = Integer.parseInt(value);
+                } else if (arg.startsWith("--args=")) {
+                    this.solverArgs = value.isBlank() ? new String[0] : value.trim().split("\\s+");
+                } else if (arg.startsWith("--match=")) {
+                    this.matchRatio = Double.parseDouble(value);
+                } else if (arg.startsWith("--skew=")) {
+                    this.skew = Double.parseDouble(value);
+                } else {
+                    throw new IllegalArgumentException("unknown option " + arg);
+                }
+            }
+        }
+    }
+
+    private static final List<Workload> WORKLOADS = List.of(
+            new Workload("ridehailing", Bench::generateRideHailing),
+            new Workload("records", Bench::generateRecords),
+            new Workload("logdb", Bench::generateLogDB),
+            new Workload("speedometer", Bench::generateSpeedometer),
+            new Workload("curvespeed", Bench::generateCurveSpeed)
+    );
+
+    /**
+     * A road graph of about twice the square root of {@code scale} destinations, with four roads out of each, and a
+     * week of trips between random destinations making up the bulk of the lines. The trips are in time order, so
+     * {@code --online} can take them as well.
+     */
+    private static void generateRideHailing(Random random, long scale, Options options, PrintWriter out) {
+        final int numDestinations = (int) Math.max(2, Math.min(Integer.MAX_VALUE / 4, 2 * Math.sqrt(scale)));
+        final int numRoads = 4 * numDestinations;
+        final int numTrips = (int) Math.max(1, Math.min(Integer.MAX_VALUE, scale - numRoads));
+        out.printf("%d %d %d%n", numDestinations, numRoads, numTrips);
+        for (int i = 0; i < numRoads; i++) {
+            final int source = 1 + i % numDestinations;
+            // a ring keeps every destination reachable, the rest are random shortcuts
+            final int destination = i < numDestinations ? 1 + (i + 1) % numDestinations : 1 + random.nextInt(numDestinations);
+            out.printf("%d %d %d%n", source, destination, 1 + random.nextInt(60));
+        }
+        final int[] times = new int[numTrips];
+        for (int i = 0; i < numTrips; i++) {
+            times[i] = random.nextInt(24 * 60 * 7);
+        }
+        Arrays.sort(times);
+        for (int i = 0; i < numTrips; i++) {
+            out.printf("%d %d %d%n", 1 + random.nextInt(numDestinations), 1 + random.nextInt(numDestinations), times[i]);
+        }
+    }
+
+    /**
+     * Two record sets of {@code scale / 2} records each, where {@code --match} of the outside records repeat an
+     * internal one's email or name in a different case.
+     */
+    private static void generateRecords(Random random, long scale, Options options, PrintWriter out) {
+        final int perSide = (int) Math.max(1, Math.min(Integer.MAX_VALUE, scale / 2));
+        final long[] internalIds = new long[perSide];
+        for (int i = 0; i < perSide; i++) {
+            internalIds[i] = random.nextLong() & Long.MAX_VALUE;
+            out.println(record(internalIds[i], internalIds[i], false));
+        }
+        out.println();
+        for (int i = 0; i < perSide; i++) {
+            final long id = random.nextLong() & Long.MAX_VALUE;
+            if (random.nextDouble() < options.matchRatio) {
+                final long matched = internalIds[random.nextInt(perSide)];
+                out.println(random.nextBoolean() ? record(matched, id, true) : record(id, matched, true));
+            } else {
+                out.println(record(id, id, false));
+            }
+        }
+    }
+
+    private static String record(long nameId, long emailId, boolean upperCase) {
+        final String first = "First" + Long.toString(nameId % 100_000, 36);
+        final String last = "Last" + Long.toString(nameId / 100_000, 36);
+        final String email = Long.toString(emailId, 36) + "@example.com";
+        return upperCase
+                ? String.format("%s\t%s\t%s", first.toUpperCase(), last.toUpperCase(), email.toUpperCase())
+                : String.format("%s\t%s\t%s", first, last, email);
+    }
+
+    /**
+     * {@code scale} facts over a few hundred predicates of arity one to four, with predicates and constants both
+     * drawn from Zipf distributions so a few of each dominate, then a tenth as many queries mixing constants,
+     * wildcards and repeated variables.
+     */
+    private static void generateLogDB(Random random, long scale, Options options, PrintWriter out) {
+        final Zipf predicates = new Zipf(random, 300, options.skew);
+        final Zipf constants = new Zipf(random, (int) Math.max(16, Math.min(1 << 20, scale / 4)), options.skew);
+        for (long i = 0; i < scale; i++) {
+            final int predicate = predicates.next();
+            final StringBuilder fact = new StringBuilder("p").append(predicate).append('(');
+            for (int arg = 0; arg < arity(predicate); arg++) {
+                if (arg > 0) fact.append(", ");
+                fact.append('c').append(constants.next());
+            }
+            out.print(fact.append(')'));
+            out.print(i % 8 == 7 ? '\n' : ' ');
+        }
+        out.println();
+        out.println();
+        for (long i = 0; i < Math.max(1, scale / 10); i++) {
+            final int predicate = predicates.next();
+            final StringBuilder query = new StringBuilder("p").append(predicate).append('(');
+            for (int arg = 0; arg < arity(predicate); arg++) {
+                if (arg > 0) query.append(',');
+                final double kind = random.nextDouble();
+                if (kind < 0.4) {
+                    query.append('c').append(constants.next());
+                } else if (kind < 0.8) {
+                    query.append('_');
+                } else {
+                    query.append("_v").append(random.nextInt(2));
+                }
+            }
+            out.println(query.append(')'));
+        }
+    }
+
+    private static int arity(int predicate) {
+        return 1 + predicate % 4;
+    }
+
+    /**
+     * Draws ranks from 0 to {@code n - 1}, rank {@code k} with weight {@code 1 / (k + 1)^exponent}.
+     */
+    private static class Zipf {
+        private final Random random;
+        private final double[] cumulative;
+
+        private Zipf(Random random, int n, double exponent) {
+            this.random = random;
+            this.cumulative = new double[n];
+            double total = 0;
+            for (int k = 0; k < n; k++) {
+                total += 1 / Math.pow(k + 1, exponent);
+                this.cumulative[k] = total;
+            }
+            for (int k = 0; k < n; k++) {
+                this.cumulative[k] /= total;
+            }
+        }
+
+        int next() {
+            final int index = Arrays.binarySearch(this.cumulative, this.random.nextDouble());
+            return Math.min(this.cumulative.length - 1, index >= 0 ? index : -index - 1);
+        }
+    }
+
+    /**
+     * {@code scale} readings of a speed that drifts slowly and holds near one value for long stretches, which keeps
+     * many readings inside the hysteresis bands.
+     */
+    private static void generateSpeedometer(Random random, long scale, Options options, PrintWriter out) {
+        out.println("0.25 0.75");
+        double speed = 30;
+        for (long i = 0; i < scale; i++) {
+            if (random.nextInt(1000) == 0) speed = Math.max(0, speed + random.nextGaussian() * 5);
+            out.printf("%.2f%n", Math.max(0, speed + random.nextGaussian() * 0.1));
+        }
+    }
+
+    /**
+     * {@code scale} curves, mostly standard radii and superelevations with some arbitrary ones mixed in.
+     */
+    private static void generateCurveSpeed(Random random, long scale, Options options, PrintWriter out) {
+        final int[] radii = {150, 300, 500, 750, 1000, 1433, 2000, 3000};
+        final String[] superelevations = {".02", ".04", ".06", ".08", ".09", ".1", ".12"};
+        for (long i = 0; i < scale; i++) {
+            if (random.nextInt(10) == 0) {
+                out.printf("%d %.3f%n", 50 + random.nextInt(5000), random.nextDouble() * 0.12);
+            } else {
+                out.printf("%d %s%n", radii[random.nextInt(radii.length)], superelevations[random.nextInt(superelevations.length)]);
+            }
+        }
+    }
+
+    /**
+     * Returns the names of the solvers there are workloads for.
+     */
+    static List<String> workloads() {
+        final List<String> names = new ArrayList<>();
+        for (Workload workload : WORKLOADS) {
+            names.add(workload.name);
+        }
+        return names;
+    }
+
+    /**
+     * Writes the input of the workload for solver {@code name}, at {@code scale} and with the default options, to
+     * {@code file}.
+     */
+    static void generate(String name, long scale, long seed, Path file) throws IOException {
+        for (Workload workload : WORKLOADS) {
+            if (workload.name.equals(name)) {
+                write(workload, scale, seed, new Options(new String[0]), file);
+                return;
+            }
+        }
+        throw new IllegalArgumentException("no workload for " + name);
+    }
+
+    private static void write(Workload workload, long scale, long seed, Options options, Path file) throws IOException {
+        try (PrintWriter out = new PrintWriter(new BufferedWriter(new OutputStreamWriter(Files.newOutputStream(file), StandardCharsets.UTF_8), 1 << 16))) {
+            workload.generator.generate(new Random(seed), scale, options, out);
+        }
+    }
+
+    private static final OutputStream DISCARD = new OutputStream() {
+        @Override
+        public void write(int b) {
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+        }
+    };
+
+    private static long allocatedBytes(ThreadMXBean threads) {
+        if (!(threads instanceof com.sun.management.ThreadMXBean)) return -1;
+        long total = 0;
+        for (long allocated : ((com.sun.management.ThreadMXBean) threads).getThreadAllocatedBytes(threads.getAllThreadIds())) {
+            if (allocated > 0) total += allocated;
+        }
+        return total;
+    }
+
+    /**
+     * Formats the fastest, median and slowest of {@code nanos}, sorting it.
+     */
+    private static String spread(long[] nanos) {
+        Arrays.sort(nanos);
+        return String.format(Locale.ROOT, "min %9.2f ms  median %9.2f ms  max %9.2f ms",
+                nanos[0] / 1e6, nanos[(nanos.length - 1) / 2] / 1e6, nanos[nanos.length - 1] / 1e6);
+    }
+
+    private static void measure(Workload workload, Options options) throws IOException {
+        final Solvers.Solver solver = Solvers.solver(workload.name);
+        if (solver == null) throw new IllegalStateException("no solver is named " + workload.name);
+        final Path input = Files.createTempFile("bench-" + workload.name, ".in");
+        try {
+            write(workload, options.scale, options.seed, options, input);
+            final long inputBytes = Files.size(input);
+            final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+            final long[] nanos = new long[options.iterations];
+            final Map<String, long[]> timerNanos = new TreeMap<>();
+            long allocated = 0;
+            for (int i = -options.warmup; i < options.iterations; i++) {
+                final Map<String, Long> timersBefore = Metrics.timerTotals();
+                final long allocatedBefore = allocatedBytes(threads);
+                final long start = System.nanoTime();
+                try (InputStream in = new FileInputStream(input.toFile())) {
+                    solver.run(options.solverArgs, in, DISCARD);
+                }
+                final long elapsed = System.nanoTime() - start;
+                if (i >= 0) {
+                    nanos[i] = elapsed;
+                    allocated += allocatedBytes(threads) - allocatedBefore;
+                    for (Map.Entry<String, Long> timer : Metrics.timerTotals().entrySet()) {
+                        final long spent = timer.getValue() - timersBefore.getOrDefault(timer.getKey(), 0L);
+                        if (spent > 0) timerNanos.computeIfAbsent(timer.getKey(), name -> new long[options.iterations])[i] = spent;
+                    }
+                }
+            }
+            final double meanSeconds = Arrays.stream(nanos).average().orElse(0) / 1e9;
+            System.out.printf("%-12s %,14d B  %9.1f MB/s  %s  %,16d B/op%n",
+                    workload.name, inputBytes, inputBytes / 1e6 / meanSeconds, spread(nanos), allocated / options.iterations);
+            for (Map.Entry<String, long[]> timer : timerNanos.entrySet()) {
+                System.out.printf("  %-40s %s%n", timer.getKey(), spread(timer.getValue()));
+            }
+        } finally {
+            Files.deleteIfExists(input);
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        final Options options = new Options(args);
+        if (options.iterations < 1) throw new IllegalArgumentException("--iterations must be at least 1");
+        for (Workload workload : WORKLOADS) {
+            if (options.solver == null || options.solver.equals(workload.name)) {
+                measure(workload, options);
+            }
+        }
+    }
+}
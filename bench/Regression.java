@@ -0,0 +1,393 @@
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.OperatingSystemMXBean;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+
+/**
+ * Checks the solvers for both correctness and speed, in-process. It finds every {@code samples-*} directory under
+ * {@code --samples}, runs each {@code *.in} file through every variant of the solver the directory's {@code solver}
+ * file names, and compares the output with the matching {@code .out} file, reporting wall time, process CPU time and
+ * peak heap per case. A variant whose flags change the output format, such as {@code ridehailing --online}, is only
+ * checked where a sample has a {@code .online.out} file for it. The {@code *-actual.out} files left in some
+ * directories are not read. Then every variant is run on the {@link Bench} workload for its solver at {@code --scale}
+ * lines, 200,000 by default, its output compared with that of the solver's default run, and its best throughput
+ * compared with the one stored for that variant and scale in the {@code --baseline} file.
+ *
+ * <pre>
+ * java -cp out Regression [--samples=DIR] [--solver=NAME] [--scale=N] [--seed=N] [--warmup=N] [--iterations=N]
+ *                         [--threshold=FRACTION] [--baseline=FILE] [--record]
+ * </pre>
+ * <p>
+ * The run fails, exiting with status 1, if any output differs from what is expected or any throughput is more than
+ * {@code --threshold} below its baseline. With {@code --record}, the measured throughputs are written to the baseline
+ * file instead of being checked against it. The best of the measured runs is used rather than the median because it
+ * is the least disturbed by the rest of the machine, but baselines still depend on the machine, so record them where
+ * they are checked.
+ */
+public class Regression {
+
+    private static class Options {
+        Path samples = Paths.get(".");
+        String solver = null;
+        Long scale = null;
+        long seed = 1;
+        int warmup = 5;
+        int iterations = 7;
+        double threshold = 0.25;
+        Path baseline = Paths.get("bench", "baseline.properties");
+        boolean record = false;
+
+        private Options(String[] args) {
+            for (String arg : args) {
+                final String value = arg.substring(arg.indexOf('=') + 1);
+                if (arg.startsWith("--samples=")) {
+                    this.samples = Paths.get(value);
+                } else if (arg.startsWith("--solver=")) {
+                    this.solver = value;
+                } else if (arg.startsWith("--scale=")) {
+                    this.scale = Long.parseLong(value);
+                } else if (arg.startsWith("--seed=")) {
+                    this.seed = Long.parseLong(value);
+                } else if (arg.startsWith("--warmup=")) {
+                    this.warmup = Integer.parseInt(value);
+                } else if (arg.startsWith("--iterations=")) {
+                    this.iterations = Integer.parseInt(value);
+                } else if (arg.startsWith("--threshold=")) {
+                    this.threshold = Double.parseDouble(value);
+                } else if (arg.startsWith("--baseline=")) {
+                    this.baseline = Paths.get(value);
+                } else if (arg.equals("--record")) {
+                    this.record = true;
+                } else {
+                    throw new IllegalArgumentException("unknown option " + arg);
+                }
+            }
+        }
+    }
+
+    /**
+     * The number of lines each solver's workload is run at unless {@code --scale} says otherwise.
+     */
+    private static final long DEFAULT_SCALE = 200_000;
+
+    /**
+     * The cost of one run of a solver.
+     */
+    private static class Measurement {
+        long wallNanos;
+        long cpuNanos;
+        long peakHeapBytes;
+    }
+
+    /**
+     * Prepares what a variant's flags refer to and returns the input to run it on in place of {@code input}.
+     */
+    private interface Setup {
+        Path prepare(Path input) throws IOException;
+    }
+
+    /**
+     * One way of running a solver. A variant with an {@code outputSuffix} writes something other than the default
+     * run does, so it is checked only against {@code <sample><outputSuffix>.out} files and not against the default.
+     */
+    private static class Variant {
+        final String name;
+        final String[] args;
+        final String outputSuffix;
+        final Setup setup;
+
+        private Variant(String name, String[] args, String outputSuffix, Setup setup) {
+            this.name = name;
+            this.args = args;
+            this.outputSuffix = outputSuffix;
+            this.setup = setup;
+        }
+
+        private Variant(String name, String... args) {
+            this(name, args, null, input -> input);
+        }
+
+        boolean isDefault() {
+            return this.args.length == 0;
+        }
+
+        /**
+         * Returns how this variant of {@code solver} is reported and keyed in the baseline file.
+         */
+        String label(String solver) {
+            return this.isDefault() ? solver : solver + "+" + this.name;
+        }
+    }
+
+    /**
+     * Returns the variants of each solver, the default run first. Files the variants make are kept in
+     * {@code scratch}.
+     */
+    private static Map<String, List<Variant>> variants(Path scratch) {
+        final Path snapshot = scratch.resolve("logdb.snapshot");
+        final Path queries = scratch.resolve("logdb-queries.in");
+        final Map<String, List<Variant>> variants = new HashMap<>();
+        variants.put("logdb", List.of(
+                new Variant("default"),
+                new Variant("parallel", "--parallel"),
+                new Variant("nocache", "--cache=0"),
+                new Variant("snapshot", new String[] {"--snapshot=" + snapshot}, null,
+                        input -> writeSnapshot(input, snapshot, queries))));
+        variants.put("ridehailing", List.of(
+                new Variant("default"),
+                new Variant("online", new String[] {"--online"}, ".online", input -> input)));
+        variants.put("records", List.of(
+                new Variant("default"),
+                new Variant("external", "--external"),
+                new Variant("parallel", "--parallel")));
+        variants.put("speedometer", List.of(
+                new Variant("default"),
+                new Variant("parallel", "--parallel")));
+        variants.put("curvespeed", List.of(
+                new Variant("default"),
+                new Variant("memo", "--memo")));
+        return variants;
+    }
+
+    /**
+     * Loads the facts of a LogDB input into {@code snapshot} and writes its queries, everything after the first
+     * blank line, to {@code queries}, which is returned.
+     */
+    private static Path writeSnapshot(Path input, Path snapshot, Path queries) throws IOException {
+        try (InputStream in = new FileInputStream(input.toFile())) {
+            LogDB.run(new String[] {"--write-snapshot=" + snapshot}, in, OutputStream.nullOutputStream());
+        }
+        try (BufferedReader in = Files.newBufferedReader(input, StandardCharsets.UTF_8);
+             BufferedWriter out = Files.newBufferedWriter(queries, StandardCharsets.UTF_8)) {
+            String line = in.readLine();
+            while (line != null && !line.isBlank()) {
+                line = in.readLine();
+            }
+            while ((line = in.readLine()) != null) {
+                out.write(line);
+                out.newLine();
+            }
+        }
+        return queries;
+    }
+
+    private static final List<MemoryPoolMXBean> HEAP_POOLS = new ArrayList<>();
+
+    static {
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) HEAP_POOLS.add(pool);
+        }
+    }
+
+    /**
+     * Returns the CPU time used so far by every thread of the process, which counts the solvers' fork-join workers
+     * too, or just by this thread where the JVM cannot tell.
+     */
+    private static long cpuNanos() {
+        final OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+        if (os instanceof com.sun.management.OperatingSystemMXBean) {
+            return ((com.sun.management.OperatingSystemMXBean) os).getProcessCpuTime();
+        }
+        return ManagementFactory.getThreadMXBean().getCurrentThreadCpuTime();
+    }
+
+    /**
+     * Runs {@code solver} once with {@code args} on {@code input}, writing to {@code out}. The heap peaks are reset
+     * after a collection beforehand, so the peak heap is that of this run, summed over the heap's pools.
+     */
+    private static Measurement measure(Solvers.Solver solver, String[] args, Path input, OutputStream out) throws IOException {
+        System.gc();
+        for (MemoryPoolMXBean pool : HEAP_POOLS) {
+            pool.resetPeakUsage();
+        }
+        final Measurement measurement = new Measurement();
+        final long cpuStart = cpuNanos();
+        final long start = System.nanoTime();
+        try (InputStream in = new FileInputStream(input.toFile())) {
+            solver.run(args, in, out);
+        }
+        measurement.wallNanos = System.nanoTime() - start;
+        measurement.cpuNanos = cpuNanos() - cpuStart;
+        for (MemoryPoolMXBean pool : HEAP_POOLS) {
+            measurement.peakHeapBytes += pool.getPeakUsage().getUsed();
+        }
+        return measurement;
+    }
+
+    private static List<Path> sampleDirectories(Path root) throws IOException {
+        final List<Path> directories = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(root, "samples-*")) {
+            for (Path directory : files) {
+                if (Files.isRegularFile(directory.resolve("solver"))) directories.add(directory);
+            }
+        }
+        Collections.sort(directories);
+        return directories;
+    }
+
+    private static String normalized(byte[] output) {
+        return new String(output, StandardCharsets.UTF_8).replace("\r\n", "\n");
+    }
+
+    /**
+     * Runs every sample through every variant of its solver and returns how many of the runs failed.
+     */
+    private static int checkSamples(Options options, Map<String, List<Variant>> variants) throws IOException {
+        int failures = 0;
+        for (Path directory : sampleDirectories(options.samples)) {
+            final String name = Solvers.solverOf(directory);
+            if (options.solver != null && !options.solver.equals(name)) continue;
+            final Solvers.Solver solver = Solvers.solver(name);
+            if (solver == null) throw new IllegalArgumentException(directory + " names no known solver");
+            for (Variant variant : variants.getOrDefault(name, List.of(new Variant("default")))) {
+                for (Path input : Solvers.inputs(directory)) {
+                    final String fileName = input.getFileName().toString();
+                    final String stem = fileName.substring(0, fileName.length() - ".in".length());
+                    final Path expected = input.resolveSibling(stem + (variant.outputSuffix != null ? variant.outputSuffix : "") + ".out");
+                    if (variant.outputSuffix != null && !Files.exists(expected)) continue;
+                    final Path prepared = variant.setup.prepare(input);
+                    for (int i = 0; i < options.warmup; i++) {
+                        measure(solver, variant.args, prepared, OutputStream.nullOutputStream());
+                    }
+                    final ByteArrayOutputStream output = new ByteArrayOutputStream();
+                    final Measurement measurement = measure(solver, variant.args, prepared, output);
+                    final String verdict;
+                    if (!Files.exists(expected)) {
+                        verdict = "NO OUTPUT";
+                    } else if (normalized(output.toByteArray()).equals(normalized(Files.readAllBytes(expected)))) {
+                        verdict = "ok";
+                    } else {
+                        verdict = "WRONG";
+                    }
+                    if (!verdict.equals("ok")) failures++;
+                    System.out.printf(Locale.ROOT, "%-24s %-24s %-9s  wall %9.2f ms  cpu %9.2f ms  heap %8.1f MB%n",
+                            input, variant.label(name), verdict, measurement.wallNanos / 1e6, measurement.cpuNanos / 1e6,
+                            measurement.peakHeapBytes / 1e6);
+                }
+            }
+        }
+        return failures;
+    }
+
+    private static Properties loadBaseline(Path file) throws IOException {
+        final Properties baseline = new Properties();
+        if (Files.exists(file)) {
+            try (Reader in = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+                baseline.load(in);
+            }
+        }
+        return baseline;
+    }
+
+    private static void storeBaseline(Properties baseline, Path file) throws IOException {
+        final StringBuilder text = new StringBuilder();
+        text.append("# Best throughput in MB/s of each solver's Bench workload, keyed by solver, variant and scale.\n");
+        text.append("# Written by Regression --record; machine-specific.\n");
+        for (String key : new TreeSet<>(baseline.stringPropertyNames())) {
+            text.append(key).append('=').append(baseline.getProperty(key)).append('\n');
+        }
+        Files.write(file, text.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Runs every variant on its solver's scaled workload and returns how many of them regressed or disagreed with
+     * the default run, or, when recording, stores their throughputs as the new baseline. The default run keeps the
+     * baseline key {@code <solver>.<scale>}; other variants are keyed {@code <solver>+<variant>.<scale>}.
+     */
+    private static int checkThroughput(Options options, Map<String, List<Variant>> variants) throws IOException {
+        final Properties baseline = loadBaseline(options.baseline);
+        int regressions = 0;
+        for (String name : Bench.workloads()) {
+            if (options.solver != null && !options.solver.equals(name)) continue;
+            final Solvers.Solver solver = Solvers.solver(name);
+            final long scale = options.scale != null ? options.scale : DEFAULT_SCALE;
+            final Path input = Files.createTempFile("regression-" + name, ".in");
+            try {
+                Bench.generate(name, scale, options.seed, input);
+                String expected = null;
+                for (Variant variant : variants.getOrDefault(name, List.of(new Variant("default")))) {
+                    final Path prepared = variant.setup.prepare(input);
+                    final long inputBytes = Files.size(prepared);
+                    final ByteArrayOutputStream output = new ByteArrayOutputStream();
+                    measure(solver, variant.args, prepared, output);
+                    final boolean agrees;
+                    if (variant.isDefault()) {
+                        expected = normalized(output.toByteArray());
+                        agrees = true;
+                    } else {
+                        agrees = variant.outputSuffix != null || normalized(output.toByteArray()).equals(expected);
+                    }
+                    // the run whose output was checked counts as the first warmup
+                    for (int i = 1; i < options.warmup; i++) {
+                        measure(solver, variant.args, prepared, OutputStream.nullOutputStream());
+                    }
+                    final long[] nanos = new long[options.iterations];
+                    long peakHeapBytes = 0;
+                    for (int i = 0; i < options.iterations; i++) {
+                        final Measurement measurement = measure(solver, variant.args, prepared, OutputStream.nullOutputStream());
+                        nanos[i] = measurement.wallNanos;
+                        peakHeapBytes = Math.max(peakHeapBytes, measurement.peakHeapBytes);
+                    }
+                    Arrays.sort(nanos);
+                    final double throughput = inputBytes / 1e6 / (nanos[0] / 1e9);
+                    final String key = variant.label(name) + "." + scale;
+                    final String stored = baseline.getProperty(key);
+                    final String comparison;
+                    if (!agrees) {
+                        regressions++;
+                        comparison = "WRONG, differs from the default run";
+                    } else if (options.record) {
+                        baseline.setProperty(key, String.format(Locale.ROOT, "%.1f", throughput));
+                        comparison = "recorded";
+                    } else if (stored == null) {
+                        comparison = "no baseline";
+                    } else {
+                        final double change = throughput / Double.parseDouble(stored) - 1;
+                        final boolean regressed = change < -options.threshold;
+                        if (regressed) regressions++;
+                        comparison = String.format(Locale.ROOT, "baseline %9.1f MB/s  %+6.1f%%  %s",
+                                Double.parseDouble(stored), 100 * change, regressed ? "REGRESSION" : "ok");
+                    }
+                    System.out.printf(Locale.ROOT, "%-24s %-24s %,14d B  %9.1f MB/s  heap %8.1f MB  %s%n",
+                            "scale " + scale, variant.label(name), inputBytes, throughput, peakHeapBytes / 1e6, comparison);
+                }
+            } finally {
+                Files.deleteIfExists(input);
+            }
+        }
+        if (options.record) storeBaseline(baseline, options.baseline);
+        return regressions;
+    }
+
+    public static void main(String[] args) throws IOException {
+        final Options options = new Options(args);
+        if (options.iterations < 1) throw new IllegalArgumentException("--iterations must be at least 1");
+        final Path scratch = Files.createTempDirectory("regression");
+        final int failures;
+        final int regressions;
+        try {
+            final Map<String, List<Variant>> variants = variants(scratch);
+            failures = checkSamples(options, variants);
+            regressions = checkThroughput(options, variants);
+        } finally {
+            try (DirectoryStream<Path> files = Files.newDirectoryStream(scratch)) {
+                for (Path file : files) {
+                    Files.delete(file);
+                }
+            }
+            Files.delete(scratch);
+        }
+        if (failures > 0 || regressions > 0) {
+            System.out.printf("%d wrong sample outputs, %d throughput regressions or variants disagreeing with the default%n",
+                    failures, regressions);
+            System.exit(1);
+        }
+    }
+}
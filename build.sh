@@ -0,0 +1,58 @@
+#!/usr/bin/env bash
+# Builds build/solvers.jar with Gradle, records a class-data-sharing archive for it from a training run over the
+# samples, writes the build/solvers launcher and reports how much faster the archive makes a cold start.
+#
+#   ./build.sh            build, train and report
+#   ./build.sh --no-cds   build the jar and launcher only
+#
+# GRADLE names the Gradle command to run, ./gradlew or gradle by default.
+set -euo pipefail
+cd "$(dirname "$0")"
+
+BUILD=build
+JAR=$BUILD/solvers.jar
+ARCHIVE=$BUILD/solvers.jsa
+# small inputs dominate, so startup matters more than peak compiled speed
+JVM_FLAGS="-XX:TieredStopAtLevel=1 -XX:+UseSerialGC -Xshare:auto"
+
+if [ -z "${GRADLE:-}" ]; then
+    if [ -x ./gradlew ]; then GRADLE=./gradlew; else GRADLE=gradle; fi
+fi
+rm -f "$ARCHIVE"
+$GRADLE --quiet jar
+
+samples=(samples-*/)
+cat > "$BUILD/solvers" <<LAUNCHER
+#!/usr/bin/env bash
+# usage: solvers logdb|ridehailing|records|speedometer|curvespeed [flags...] < input
+here="\$(cd "\$(dirname "\$0")" && pwd)"
+archive=()
+[ -f "\$here/solvers.jsa" ] && archive=(-XX:SharedArchiveFile="\$here/solvers.jsa")
+exec java $JVM_FLAGS "\${archive[@]}" -jar "\$here/solvers.jar" "\$@"
+LAUNCHER
+chmod +x "$BUILD/solvers"
+
+if [ "${1:-}" = "--no-cds" ]; then
+    echo "built $JAR"
+    exit 0
+fi
+
+java $JVM_FLAGS -XX:ArchiveClassesAtExit="$ARCHIVE" -jar "$JAR" train "${samples[@]}"
+
+# average wall time of cold runs over the first sample of every solver
+time_runs() {
+    local runs=10 start end
+    start=$(date +%s%N)
+    for _ in $(seq $runs); do
+        for dir in "${samples[@]}"; do
+            java $JVM_FLAGS "$@" -jar "$JAR" "$(cat "$dir/solver")" < "$(ls "$dir"*.in | head -n 1)" > /dev/null
+        done
+    done
+    end=$(date +%s%N)
+    echo $(( (end - start) / 1000000 / runs / ${#samples[@]} ))
+}
+without=$(time_runs -Xshare:off)
+default=$(time_runs)
+with=$(time_runs -XX:SharedArchiveFile="$ARCHIVE")
+echo "built $JAR and $ARCHIVE"
+echo "mean cold run: ${without} ms without CDS, ${default} ms with the JDK archive, ${with} ms with $ARCHIVE"
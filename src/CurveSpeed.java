@@ -1,38 +1,192 @@
-import java.util.Scanner;
+import java.io.BufferedWriter;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.util.Arrays;
+import java.util.stream.IntStream;
 
 public class CurveSpeed {
 
-    private static class Curve {
-        final int R;
-        final double S;
+    private static final int PARALLEL_THRESHOLD = 1 << 16;
+    private static final int CHUNK_SIZE = 1 << 14;
+    private static final int MEMO_CAPACITY = 1 << 20;
+    private static final Metrics.Timer READ_TIME = Metrics.timer("curvespeed.read");
+    private static final Metrics.Timer COMPUTE_TIME = Metrics.timer("curvespeed.compute");
+    private static final Metrics.Counter MEMO_HITS = Metrics.counter("curvespeed.memo.hits");
+    private static final Metrics.Counter MEMO_LOOKUPS = Metrics.counter("curvespeed.memo.lookups");
 
-        public Curve(String s) {
-            final Scanner scanner = new Scanner(s);
-            this.R = scanner.nextInt();
-            this.S = scanner.nextDouble();
-            scanner.close();
+    /**
+     * The radius and superelevation of every curve, in input order.
+     */
+    private static class Curves {
+        int[] R;
+        double[] S;
+        int size;
+
+        private Curves() {
+            this.R = new int[1 << 10];
+            this.S = new double[1 << 10];
+            this.size = 0;
+        }
+
+        void add(int R, double S) {
+            if (this.size == this.R.length) {
+                this.R = Arrays.copyOf(this.R, 2 * this.size);
+                this.S = Arrays.copyOf(this.S, 2 * this.size);
+            }
+            this.R[this.size] = R;
+            this.S[this.size] = S;
+            this.size++;
+        }
+    }
+
+    public static long maximumSpeed(int R, double S) {
+        return Math.round(Math.sqrt((R * (S + 0.16)) / 0.067));
+    }
+
+    /**
+     * An open-addressing map from a radius and the exact bits of a superelevation to the maximum speed for them, so a
+     * repeated pair skips the square root. It doubles as pairs are added, up to {@link #MEMO_CAPACITY} slots, after
+     * which it stops taking new pairs and only answers the ones it has. Lookups do not change it, so once filled it can
+     * be shared across threads.
+     */
+    private static class SpeedMemo {
+        private int[] radii;
+        private long[] superelevations;
+        private long[] speeds;
+        private boolean[] used;
+        private int size;
+
+        private SpeedMemo() {
+            this.allocate(1 << 12);
         }
 
-        public long maximumSpeed() {
-            return Math.round(Math.sqrt((this.R * (this.S + 0.16)) / 0.067));
+        private void allocate(int capacity) {
+            this.radii = new int[capacity];
+            this.superelevations = new long[capacity];
+            this.speeds = new long[capacity];
+            this.used = new boolean[capacity];
+            this.size = 0;
         }
 
-        @Override
-        public String toString() {
-            return "Curve{" +
-                    "R=" + R +
-                    ", S=" + S +
-                    '}';
+        private int slotOf(int R, long bits) {
+            final long hash = (31L * R + bits) * 0x9E3779B97F4A7C15L;
+            final int mask = this.radii.length - 1;
+            int slot = (int) (hash >>> 32) & mask;
+            while (this.used[slot] && !(this.radii[slot] == R && this.superelevations[slot] == bits)) {
+                slot = (slot + 1) & mask;
+            }
+            return slot;
         }
+
+        /**
+         * Adds the pair unless it is already in the memo or the memo is full, and returns whether it was already in.
+         */
+        boolean add(int R, double S) {
+            final long bits = Double.doubleToRawLongBits(S);
+            final int slot = this.slotOf(R, bits);
+            if (this.used[slot]) return true;
+            if (4 * (this.size + 1) > 3 * this.radii.length) {
+                if (this.radii.length < MEMO_CAPACITY) {
+                    this.grow();
+                    this.add(R, S);
+                }
+                return false;
+            }
+            this.used[slot] = true;
+            this.radii[slot] = R;
+            this.superelevations[slot] = bits;
+            this.speeds[slot] = CurveSpeed.maximumSpeed(R, S);
+            this.size++;
+            return false;
+        }
+
+        private void grow() {
+            final int[] radii = this.radii;
+            final long[] superelevations = this.superelevations;
+            final long[] speeds = this.speeds;
+            final boolean[] used = this.used;
+            this.allocate(2 * radii.length);
+            for (int i = 0; i < radii.length; i++) {
+                if (used[i]) {
+                    final int slot = this.slotOf(radii[i], superelevations[i]);
+                    this.used[slot] = true;
+                    this.radii[slot] = radii[i];
+                    this.superelevations[slot] = superelevations[i];
+                    this.speeds[slot] = speeds[i];
+                    this.size++;
+                }
+            }
+        }
+
+        long maximumSpeed(int R, double S) {
+            final int slot = this.slotOf(R, Double.doubleToRawLongBits(S));
+            return this.used[slot] ? this.speeds[slot] : CurveSpeed.maximumSpeed(R, S);
+        }
+    }
+
+    private static Curves read(FastReader reader) {
+        final Curves curves = new Curves();
+        while (reader.hasNext()) {
+            final int R = reader.nextInt();
+            final double S = reader.nextDouble();
+            curves.add(R, S);
+        }
+        return curves;
+    }
+
+    /**
+     * Returns the maximum speed of every curve, splitting large inputs into chunks computed on the common fork-join
+     * pool. With {@code memoize}, a first pass fills one {@link SpeedMemo} with the distinct pairs, and the chunks then
+     * look every curve up in it.
+     */
+    private static long[] maximumSpeeds(Curves curves, boolean memoize) {
+        final long[] speeds = new long[curves.size];
+        final SpeedMemo memo = memoize ? new SpeedMemo() : null;
+        if (memoize) {
+            long hits = 0;
+            for (int i = 0; i < curves.size; i++) {
+                if (memo.add(curves.R[i], curves.S[i])) hits++;
+            }
+            MEMO_HITS.add(hits);
+            MEMO_LOOKUPS.add(curves.size);
+        }
+        final int numChunks = (curves.size + CHUNK_SIZE - 1) / CHUNK_SIZE;
+        IntStream chunks = IntStream.range(0, numChunks);
+        if (curves.size >= PARALLEL_THRESHOLD) chunks = chunks.parallel();
+        chunks.forEach(chunk -> {
+            final int to = Math.min(curves.size, (chunk + 1) * CHUNK_SIZE);
+            if (memoize) {
+                for (int i = chunk * CHUNK_SIZE; i < to; i++) {
+                    speeds[i] = memo.maximumSpeed(curves.R[i], curves.S[i]);
+                }
+            } else {
+                for (int i = chunk * CHUNK_SIZE; i < to; i++) {
+                    speeds[i] = maximumSpeed(curves.R[i], curves.S[i]);
+                }
+            }
+        });
+        return speeds;
     }
 
     public static void main(String[] args) {
-        final Scanner scanner = new Scanner(System.in);
-        while (scanner.hasNextLine()) {
-            final Curve curve = new Curve(scanner.nextLine());
-            System.out.println(curve.maximumSpeed());
+        run(args, System.in, System.out);
+    }
+
+    public static void run(String[] args, InputStream in, OutputStream out) {
+        final boolean memoize = Arrays.asList(args).contains("--memo");
+        final long readStart = READ_TIME.start();
+        final Curves curves = read(new FastReader(in));
+        READ_TIME.stop(readStart);
+        final long computeStart = COMPUTE_TIME.start();
+        final long[] speeds = maximumSpeeds(curves, memoize);
+        COMPUTE_TIME.stop(computeStart);
+        final PrintWriter writer = new PrintWriter(new BufferedWriter(new OutputStreamWriter(out)));
+        for (long speed : speeds) {
+            writer.println(speed);
         }
-        scanner.close();
+        writer.flush();
     }
 
 }
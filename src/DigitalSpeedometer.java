@@ -1,118 +1,374 @@
+import java.io.BufferedWriter;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
 import java.util.*;
-import java.util.function.Predicate;
-import java.util.stream.Collectors;
+import java.util.stream.DoubleStream;
+import java.util.stream.IntStream;
+import java.util.stream.StreamSupport;
 
-public class DigitalSpeedometer implements Iterable<Integer> {
+/**
+ * Turns speed readings into display speeds one reading at a time, so readings can be pushed through
+ * {@link #onSample(double)} as they arrive. Memory stays constant however many readings there are, and no reading
+ * allocates anything.
+ */
+public class DigitalSpeedometer {
+
+    private static final Metrics.Counter IN_BAND_READINGS = Metrics.counter("speedometer.in_band_readings");
+    private static final Metrics.Histogram BANDS_SEARCHED = Metrics.histogram("speedometer.bands_searched");
+    private static final Metrics.Histogram WALK_DEPTH = Metrics.histogram("speedometer.walk_depth");
 
     final double tf;
     final double tr;
-    final List<Double> speeds;
-
-    public DigitalSpeedometer(Scanner scanner) {
-        this.tf = scanner.nextDouble();
-        this.tr = scanner.nextDouble();
-        List<Double> speeds = new ArrayList<>();
-        while (scanner.hasNextDouble()) {
-            speeds.add(scanner.nextDouble());
+
+    /*
+     * The bands [k + tf, k + tr], for integers k, that contain the previous reading, each with the most recent
+     * reading outside it. Any other band does not contain the previous reading, which is then the most recent reading
+     * outside it.
+     */
+    BandState bands;
+    BandState nextBands;
+
+    public DigitalSpeedometer(double tf, double tr) {
+        this.tf = tf;
+        this.tr = tr;
+        this.bands = new BandState();
+        this.nextBands = new BandState();
+    }
+
+    /**
+     * A reading and the bands containing it, each with the most recent reading outside it before that one. The
+     * readings before the first are taken to be -1.
+     */
+    private static class BandState {
+        double previousS;
+        double[] mins;
+        double[] maxes;
+        double[] outside;
+        int numBands;
+
+        private BandState() {
+            this.previousS = -1;
+            this.mins = new double[4];
+            this.maxes = new double[4];
+            this.outside = new double[4];
+            this.numBands = 0;
+        }
+
+        int find(double min, double max) {
+            for (int band = 0; band < this.numBands; band++) {
+                if (Double.compare(this.mins[band], min) == 0 && Double.compare(this.maxes[band], max) == 0) {
+                    return band;
+                }
+            }
+            return -1;
+        }
+
+        /**
+         * Returns the most recent reading, up to and including the previous one, outside the band from {@code min} to
+         * {@code max}.
+         */
+        double mostRecentOutside(double min, double max) {
+            final int band = this.find(min, max);
+            return band < 0 ? this.previousS : this.outside[band];
+        }
+
+        void add(double min, double max) {
+            if (this.find(min, max) >= 0) return;
+            if (this.numBands == this.mins.length) {
+                this.mins = Arrays.copyOf(this.mins, 2 * this.numBands);
+                this.maxes = Arrays.copyOf(this.maxes, 2 * this.numBands);
+                this.outside = Arrays.copyOf(this.outside, 2 * this.numBands);
+            }
+            this.mins[this.numBands] = min;
+            this.maxes[this.numBands] = max;
+            this.numBands++;
+        }
+    }
+
+    /**
+     * Returns the speed to display for reading {@code s}, which follows every reading passed before it.
+     */
+    public int onSample(double s) {
+        final double i = Math.floor(s);
+        final double j = i + 1;
+        int displaySpeed = 0;
+        final double iPlusTf = i + this.tf;
+        final double iPlusTr = i + this.tr;
+        if (inInterval(s, 0, 1, false, false)) {
+            displaySpeed = 1;
+        } else if (inInterval(s, i, iPlusTf, true, false)) {
+            displaySpeed = (int) i;
+        } else if (inInterval(s, iPlusTr, j, false, true)) {
+            displaySpeed = (int) j;
+        } else if (inInterval(s, iPlusTf, iPlusTr, true, true)) {
+            final double mostRecentS = this.mostRecentSOutsideRange(i);
+            displaySpeed = (int) (Double.compare(mostRecentS, iPlusTr) < 0 ? i : j);
         }
-        this.speeds = speeds.stream().collect(Collectors.toUnmodifiableList());
+        this.advancePast(s);
+        return displaySpeed;
     }
 
-    private class SpeedIterator implements Iterator<Integer> {
+    /**
+     * Returns the display speeds of {@code readings}, pushing them through {@link #onSample(double)} in order as the
+     * returned stream is consumed.
+     */
+    public IntStream displaySpeeds(DoubleStream readings) {
+        return readings.sequential().mapToInt(this::onSample);
+    }
+
+    /**
+     * Writes the display speed of every reading to {@code displaySpeeds}, exactly as passing them through
+     * {@link #onSample(double)} in order would, and leaves the speedometer after the last of them.
+     */
+    public void classify(double[] readings, int[] displaySpeeds) {
+        this.classify(readings, displaySpeeds, 1, false);
+    }
 
-        int currentIndex;
+    /**
+     * Does the same as {@link #classify(double[], int[])} with the readings split into {@code numChunks} chunks that
+     * are classified at once on the common fork-join pool.
+     */
+    public void classifyInParallel(double[] readings, int[] displaySpeeds, int numChunks) {
+        this.classify(readings, displaySpeeds, numChunks, true);
+    }
 
-        public SpeedIterator() {
-            this.currentIndex = 0;
+    /*
+     * A first pass over each chunk settles every reading outside the hysteresis band of its own integer part, and
+     * marks the rest. The bands containing the last reading of each chunk are then found along with the most recent
+     * reading outside them, which for a band covering the whole chunk comes from the chunk before. Stitching those
+     * from the first chunk on gives the state every chunk starts in, and a second pass settles the marked readings.
+     */
+    private void classify(double[] readings, int[] displaySpeeds, int numChunks, boolean parallel) {
+        if (!(this.tr - this.tf < 1)) {
+            // overlapping bands could make the second pass quadratic
+            for (int index = 0; index < readings.length; index++) {
+                displaySpeeds[index] = this.onSample(readings[index]);
+            }
+            return;
         }
+        if (readings.length == 0) return;
+        final int chunks = Math.max(1, Math.min(numChunks, readings.length));
+        final int[] chunkStarts = new int[chunks + 1];
+        for (int chunk = 0; chunk <= chunks; chunk++) {
+            chunkStarts[chunk] = (int) ((long) readings.length * chunk / chunks);
+        }
+        final boolean[] inBand = new boolean[readings.length];
+        final BandState[] exits = new BandState[chunks];
+        final boolean[][] exitsResolved = new boolean[chunks][];
+        IntStream chunkIndexes = IntStream.range(0, chunks);
+        if (parallel) chunkIndexes = chunkIndexes.parallel();
+        chunkIndexes.forEach(chunk -> {
+            this.settleOutsideBands(readings, displaySpeeds, inBand, chunkStarts[chunk], chunkStarts[chunk + 1]);
+            exits[chunk] = new BandState();
+            exitsResolved[chunk] = this.findExit(readings, chunkStarts[chunk], chunkStarts[chunk + 1], exits[chunk]);
+        });
 
-        private double mostRecentSOutsideRange(double i) {
-            double s = -1;
-            boolean found = false;
-            final Interval interval = new Interval(i + tf, i + tr, true, true);
-            for (int index = this.currentIndex - 1; index >= 0 && !found; index--) {
-                if (!interval.test(speeds.get(index))) {
-                    found = true;
-                    s = speeds.get(index);
+        final BandState[] entries = new BandState[chunks + 1];
+        entries[0] = this.bands;
+        for (int chunk = 0; chunk < chunks; chunk++) {
+            final BandState exit = exits[chunk];
+            for (int band = 0; band < exit.numBands; band++) {
+                if (!exitsResolved[chunk][band]) {
+                    exit.outside[band] = entries[chunk].mostRecentOutside(exit.mins[band], exit.maxes[band]);
                 }
             }
-            return s;
+            entries[chunk + 1] = exit;
         }
 
-        @Override
-        public boolean hasNext() {
-            return this.currentIndex < speeds.size();
-        }
+        final double[] mostRecentOutside = new double[readings.length];
+        chunkIndexes = IntStream.range(0, chunks);
+        if (parallel) chunkIndexes = chunkIndexes.parallel();
+        chunkIndexes.forEach(chunk -> this.settleInBands(readings, displaySpeeds, inBand, mostRecentOutside,
+                chunkStarts[chunk], chunkStarts[chunk + 1], entries[chunk]));
+        this.bands = entries[chunks];
+    }
 
-        @Override
-        public Integer next() {
-            final double s = speeds.get(this.currentIndex);
+    /**
+     * Settles the display speed of every reading from {@code from} to {@code to} that is outside the hysteresis band
+     * of its integer part, and flags the others.
+     */
+    private void settleOutsideBands(double[] readings, int[] displaySpeeds, boolean[] inBand, int from, int to) {
+        for (int index = from; index < to; index++) {
+            final double s = readings[index];
             final double i = Math.floor(s);
             final double j = i + 1;
+            final double iPlusTf = i + this.tf;
+            final double iPlusTr = i + this.tr;
             int displaySpeed = 0;
-            final double iPlusTf = i + tf;
-            final double iPlusTr = i + tr;
-            if (new Interval(0, 1, false, false).test(s)) {
+            boolean hysteresis = false;
+            if (inInterval(s, 0, 1, false, false)) {
                 displaySpeed = 1;
-            } else if (new Interval(i, iPlusTf, true, false).test(s)) {
+            } else if (inInterval(s, i, iPlusTf, true, false)) {
                 displaySpeed = (int) i;
-            } else if (new Interval(iPlusTr, j, false, true).test(s)) {
+            } else if (inInterval(s, iPlusTr, j, false, true)) {
                 displaySpeed = (int) j;
-            } else if (new Interval(iPlusTf, iPlusTr, true, true).test(s)) {
-                final double mostRecentS = mostRecentSOutsideRange(i);
-                displaySpeed = (int) (Double.compare(mostRecentS, iPlusTr) < 0 ? i : j);
+            } else {
+                hysteresis = inInterval(s, iPlusTf, iPlusTr, true, true);
             }
-            ++this.currentIndex;
-            return displaySpeed;
+            displaySpeeds[index] = displaySpeed;
+            inBand[index] = hysteresis;
         }
     }
 
-    @Override
-    public Iterator<Integer> iterator() {
-        return new SpeedIterator();
+    /**
+     * Fills {@code exit} with the last reading from {@code from} to {@code to} and the bands containing it, returning
+     * which of those have a more recent reading outside them within the chunk. The rest cover the whole chunk.
+     */
+    private boolean[] findExit(double[] readings, int from, int to, BandState exit) {
+        exit.previousS = readings[to - 1];
+        this.findBandsContaining(exit.previousS, exit);
+        final boolean[] resolved = new boolean[exit.numBands];
+        for (int band = 0; band < exit.numBands; band++) {
+            for (int index = to - 2; index >= from && !resolved[band]; index--) {
+                if (!inInterval(readings[index], exit.mins[band], exit.maxes[band], true, true)) {
+                    resolved[band] = true;
+                    exit.outside[band] = readings[index];
+                }
+            }
+        }
+        return resolved;
+    }
+
+    /**
+     * Settles the flagged readings from {@code from} to {@code to}, given the state before {@code from}. Walking back
+     * from a reading stops at the first reading outside its band, or at an earlier flagged reading with the same band,
+     * whose answer carries over, so with bands narrower than one each reading is walked over at most once.
+     */
+    private void settleInBands(double[] readings, int[] displaySpeeds, boolean[] inBand, double[] mostRecentOutside,
+                               int from, int to, BandState entry) {
+        for (int index = from; index < to; index++) {
+            if (!inBand[index]) continue;
+            final double i = Math.floor(readings[index]);
+            final double iPlusTf = i + this.tf;
+            final double iPlusTr = i + this.tr;
+            double outside = 0;
+            boolean found = false;
+            int earlier;
+            for (earlier = index - 1; earlier >= from && !found; earlier--) {
+                final double s = readings[earlier];
+                if (!inInterval(s, iPlusTf, iPlusTr, true, true)) {
+                    outside = s;
+                    found = true;
+                } else if (inBand[earlier] && Double.compare(Math.floor(s), i) == 0) {
+                    outside = mostRecentOutside[earlier];
+                    found = true;
+                }
+            }
+            if (!found) outside = entry.mostRecentOutside(iPlusTf, iPlusTr);
+            IN_BAND_READINGS.increment();
+            WALK_DEPTH.record(index - 1 - earlier);
+            mostRecentOutside[index] = outside;
+            displaySpeeds[index] = (int) (Double.compare(outside, iPlusTr) < 0 ? i : i + 1);
+        }
     }
 
-    private static class Interval implements Predicate<Double> {
-        final double min;
-        final double max;
-        final boolean lowerInclusive;
-        final boolean upperInclusive;
+    private double mostRecentSOutsideRange(double i) {
+        IN_BAND_READINGS.increment();
+        BANDS_SEARCHED.record(this.bands.numBands);
+        return this.bands.mostRecentOutside(i + this.tf, i + this.tr);
+    }
 
-        private Interval(double min, double max, boolean lowerInclusive, boolean upperInclusive) {
-            this.min = min;
-            this.max = max;
-            this.lowerInclusive = lowerInclusive;
-            this.upperInclusive = upperInclusive;
+    /**
+     * Moves the bands on past reading {@code s}: only bands containing it stay, keeping the most recent reading
+     * outside them if they contained the previous one too, or else taking the previous reading as that.
+     */
+    private void advancePast(double s) {
+        this.findBandsContaining(s, this.nextBands);
+        for (int band = 0; band < this.nextBands.numBands; band++) {
+            this.nextBands.outside[band] = this.bands.mostRecentOutside(this.nextBands.mins[band], this.nextBands.maxes[band]);
         }
+        final BandState swap = this.bands;
+        this.bands = this.nextBands;
+        this.nextBands = swap;
+        this.bands.previousS = s;
+    }
 
-        @Override
-        public int hashCode() {
-            return Objects.hash(min, max, lowerInclusive, upperInclusive);
+    /**
+     * Replaces the bands of {@code into} with those containing {@code s}, leaving their most recent outside readings
+     * for the caller to fill in.
+     */
+    private void findBandsContaining(double s, BandState into) {
+        into.numBands = 0;
+        if (!Double.isFinite(s)) return;
+        // one integer beyond either end absorbs the rounding of k + tf and k + tr
+        final double last = nextInteger(Math.ceil(s - this.tf), 1);
+        for (double k = nextInteger(Math.floor(s - this.tr), -1); k <= last; k = nextInteger(k, 1)) {
+            this.addBandIfContains(k, s, into);
+            if (k == 0) this.addBandIfContains(-0.0, s, into);
         }
+    }
 
-        @Override
-        public boolean test(Double aDouble) {
-            return isAboveLowerBound(aDouble) && isBelowUpperBound(aDouble);
+    private void addBandIfContains(double k, double s, BandState into) {
+        final double min = k + this.tf;
+        final double max = k + this.tr;
+        if (inInterval(s, min, max, true, true)) into.add(min, max);
+    }
 
-        }
+    /**
+     * Returns the integer next to {@code k} in {@code direction}, or the next double when integers are no longer
+     * one apart.
+     */
+    private static double nextInteger(double k, int direction) {
+        final double next = k + direction;
+        return next != k ? next : direction > 0 ? Math.nextUp(k) : Math.nextDown(k);
+    }
 
-        private boolean isAboveLowerBound(Double aDouble) {
-            final int compareToMin = Double.compare(aDouble, min);
-            return this.lowerInclusive ? compareToMin >= 0 : compareToMin > 0;
-        }
+    /**
+     * Tests whether {@code x} lies between {@code min} and {@code max}, comparing as {@link Double#compare} does.
+     */
+    private static boolean inInterval(double x, double min, double max, boolean lowerInclusive, boolean upperInclusive) {
+        final int compareToMin = Double.compare(x, min);
+        final int compareToMax = Double.compare(x, max);
+        return (lowerInclusive ? compareToMin >= 0 : compareToMin > 0)
+                && (upperInclusive ? compareToMax <= 0 : compareToMax < 0);
+    }
 
-        private boolean isBelowUpperBound(Double aDouble) {
-            final int compareToMax = Double.compare(aDouble, max);
-            return this.upperInclusive ? compareToMax <= 0 : compareToMax < 0;
-        }
+    /**
+     * Returns the readings left in {@code reader}.
+     */
+    private static DoubleStream readings(FastReader reader) {
+        final PrimitiveIterator.OfDouble iterator = new PrimitiveIterator.OfDouble() {
+            @Override
+            public boolean hasNext() {
+                return reader.hasNext();
+            }
+
+            @Override
+            public double nextDouble() {
+                return reader.nextDouble();
+            }
+        };
+        return StreamSupport.doubleStream(Spliterators.spliteratorUnknownSize(iterator, Spliterator.ORDERED), false);
     }
 
     public static void main(String[] args) {
-        final Scanner scanner = new Scanner(System.in);
-        final DigitalSpeedometer digitalSpeedometer = new DigitalSpeedometer(scanner);
-        scanner.close();
-        for (Integer speed : digitalSpeedometer) {
-            System.out.println(speed);
+        run(args, System.in, System.out);
+    }
+
+    public static void run(String[] args, InputStream in, OutputStream out) {
+        int numChunks = 0;
+        for (String arg : args) {
+            if (arg.equals("--parallel")) {
+                numChunks = 4 * Runtime.getRuntime().availableProcessors();
+            } else if (arg.startsWith("--parallel=")) {
+                numChunks = Integer.parseInt(arg.substring("--parallel=".length()));
+            }
+        }
+        final FastReader reader = new FastReader(in);
+        final DigitalSpeedometer digitalSpeedometer = new DigitalSpeedometer(reader.nextDouble(), reader.nextDouble());
+        final PrintWriter writer = new PrintWriter(new BufferedWriter(new OutputStreamWriter(out)));
+        if (numChunks > 0) {
+            final double[] readings = readings(reader).toArray();
+            final int[] displaySpeeds = new int[readings.length];
+            digitalSpeedometer.classifyInParallel(readings, displaySpeeds, numChunks);
+            for (int displaySpeed : displaySpeeds) {
+                writer.println(displaySpeed);
+            }
+        } else {
+            digitalSpeedometer.displaySpeeds(readings(reader)).forEach(writer::println);
         }
+        writer.flush();
     }
 }
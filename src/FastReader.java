@@ -0,0 +1,258 @@
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+
+/**
+ * Reads input a byte at a time out of one large buffer, in place of {@link java.util.Scanner}. A
+ * {@link FileInputStream} over a regular file, such as the one {@link Solvers#main} opens on a redirected standard
+ * input, is memory-mapped a window at a time; anything else is read through a direct buffer. Numbers are parsed straight from the bytes without building strings. Tokens are separated by
+ * whitespace and control characters, and lines end at {@code \n}, {@code \r\n} or a lone {@code \r}.
+ */
+public class FastReader {
+
+    private static final int BUFFER_SIZE = 1 << 16;
+    private static final long MAPPED_WINDOW = 1L << 30;
+    private static final Metrics.Counter BYTES_READ = Metrics.counter("input.bytes");
+    private static final Metrics.Timer REFILL_TIME = Metrics.timer("input.refill");
+    private static final double[] POWERS_OF_TEN = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+            1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+
+    private final ReadableByteChannel channel;
+    private final FileChannel file;
+    private long filePosition;
+    private final long fileSize;
+    private ByteBuffer buffer;
+    private byte[] token;
+    private int tokenLength;
+
+    public FastReader(InputStream in) {
+        final ReadableByteChannel channel = in instanceof FileInputStream
+                ? ((FileInputStream) in).getChannel()
+                : Channels.newChannel(in);
+        FileChannel file = null;
+        long filePosition = 0;
+        long fileSize = 0;
+        if (channel instanceof FileChannel) {
+            try {
+                filePosition = ((FileChannel) channel).position();
+                fileSize = ((FileChannel) channel).size();
+                file = fileSize > filePosition ? (FileChannel) channel : null;
+            } catch (IOException e) {
+                // a pipe or terminal, which can only be streamed
+                file = null;
+            }
+        }
+        this.channel = channel;
+        this.file = file;
+        this.filePosition = filePosition;
+        this.fileSize = fileSize;
+        this.buffer = file != null ? ByteBuffer.allocate(0) : ByteBuffer.allocateDirect(BUFFER_SIZE).limit(0);
+        this.token = new byte[64];
+        this.tokenLength = 0;
+    }
+
+    /**
+     * Reads the remaining bytes of {@code buffer}.
+     */
+    public FastReader(ByteBuffer buffer) {
+        this.channel = null;
+        this.file = null;
+        this.filePosition = 0;
+        this.fileSize = 0;
+        this.buffer = buffer;
+        this.token = new byte[64];
+        this.tokenLength = 0;
+    }
+
+    private boolean refill() {
+        final long start = REFILL_TIME.start();
+        try {
+            if (this.file != null) {
+                if (this.filePosition >= this.fileSize) return false;
+                final long length = Math.min(MAPPED_WINDOW, this.fileSize - this.filePosition);
+                this.buffer = this.file.map(FileChannel.MapMode.READ_ONLY, this.filePosition, length);
+                this.filePosition += length;
+                BYTES_READ.add(length);
+                return true;
+            }
+            if (this.channel == null) return false;
+            this.buffer.clear();
+            int read;
+            do {
+                read = this.channel.read(this.buffer);
+            } while (read == 0);
+            this.buffer.flip();
+            BYTES_READ.add(Math.max(read, 0));
+            return read > 0;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            REFILL_TIME.stop(start);
+        }
+    }
+
+    /**
+     * Returns the next byte, from 0 to 255, or -1 at the end of input.
+     */
+    public int read() {
+        if (!this.buffer.hasRemaining() && !this.refill()) return -1;
+        return this.buffer.get() & 0xFF;
+    }
+
+    private int peek() {
+        if (!this.buffer.hasRemaining() && !this.refill()) return -1;
+        return this.buffer.get(this.buffer.position()) & 0xFF;
+    }
+
+    /**
+     * Tells whether a byte can be read without waiting on the underlying input.
+     */
+    public boolean hasBufferedInput() {
+        return this.buffer.hasRemaining();
+    }
+
+    /**
+     * Skips whitespace and tells whether a token follows it.
+     */
+    public boolean hasNext() {
+        int c;
+        while ((c = this.peek()) != -1 && c <= ' ') {
+            this.buffer.get();
+        }
+        return c != -1;
+    }
+
+    private void readToken() {
+        if (!this.hasNext()) throw new NoSuchElementException();
+        this.tokenLength = 0;
+        int c;
+        while ((c = this.peek()) > ' ') {
+            if (this.tokenLength == this.token.length) {
+                this.token = Arrays.copyOf(this.token, 2 * this.tokenLength);
+            }
+            this.token[this.tokenLength++] = (byte) c;
+            this.buffer.get();
+        }
+    }
+
+    public String next() {
+        this.readToken();
+        return new String(this.token, 0, this.tokenLength, Charset.defaultCharset());
+    }
+
+    public int nextInt() {
+        this.readToken();
+        final long value = this.parsePlainLong();
+        if (value != Long.MIN_VALUE && value == (int) value) return (int) value;
+        return Integer.parseInt(this.tokenString());
+    }
+
+    public long nextLong() {
+        this.readToken();
+        final long value = this.parsePlainLong();
+        if (value != Long.MIN_VALUE) return value;
+        return Long.parseLong(this.tokenString());
+    }
+
+    /**
+     * Parses the token as an optionally negative run of at most 18 digits, or returns {@link Long#MIN_VALUE} for
+     * anything else.
+     */
+    private long parsePlainLong() {
+        final boolean negative = this.token[0] == '-';
+        final int from = negative ? 1 : 0;
+        if (this.tokenLength == from || this.tokenLength - from > 18) return Long.MIN_VALUE;
+        long value = 0;
+        for (int i = from; i < this.tokenLength; i++) {
+            final int digit = this.token[i] - '0';
+            if (digit < 0 || digit > 9) return Long.MIN_VALUE;
+            value = 10 * value + digit;
+        }
+        return negative ? -value : value;
+    }
+
+    /**
+     * Parses plain decimals of at most 15 significant digits as the digits divided by a power of ten, which is exact
+     * before the one rounding of the division, so it gives the same double as {@link Double#parseDouble}. Anything
+     * else goes to {@link Double#parseDouble}.
+     */
+    public double nextDouble() {
+        this.readToken();
+        final boolean negative = this.token[0] == '-';
+        long digits = 0;
+        int significantDigits = 0;
+        int fractionDigits = -1;
+        boolean sawDigit = false;
+        boolean plain = true;
+        for (int i = negative ? 1 : 0; i < this.tokenLength && plain; i++) {
+            final byte c = this.token[i];
+            if (c == '.' && fractionDigits < 0) {
+                fractionDigits = 0;
+            } else if (c >= '0' && c <= '9') {
+                sawDigit = true;
+                digits = 10 * digits + (c - '0');
+                if (digits > 0) significantDigits++;
+                if (fractionDigits >= 0) fractionDigits++;
+                plain = significantDigits <= 15 && fractionDigits < POWERS_OF_TEN.length;
+            } else {
+                plain = false;
+            }
+        }
+        if (plain && sawDigit) {
+            final double value = digits / POWERS_OF_TEN[Math.max(fractionDigits, 0)];
+            return negative ? -value : value;
+        }
+        return Double.parseDouble(this.tokenString());
+    }
+
+    private String tokenString() {
+        return new String(this.token, 0, this.tokenLength, StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * Appends the next line, without its line terminator, to {@code line}, returning false instead at the end of
+     * input. Lines of plain ASCII are copied over without decoding.
+     */
+    public boolean readLine(StringBuilder line) {
+        int c = this.read();
+        if (c == -1) return false;
+        this.tokenLength = 0;
+        boolean ascii = true;
+        while (c != -1 && c != '\n' && c != '\r') {
+            if (this.tokenLength == this.token.length) {
+                this.token = Arrays.copyOf(this.token, 2 * this.tokenLength);
+            }
+            this.token[this.tokenLength++] = (byte) c;
+            ascii &= c < 0x80;
+            c = this.read();
+        }
+        if (c == '\r' && this.peek() == '\n') this.buffer.get();
+        if (ascii) {
+            for (int i = 0; i < this.tokenLength; i++) {
+                line.append((char) this.token[i]);
+            }
+        } else {
+            line.append(new String(this.token, 0, this.tokenLength, Charset.defaultCharset()));
+        }
+        return true;
+    }
+
+    /**
+     * Returns the next line without its line terminator, or null at the end of input.
+     */
+    public String nextLine() {
+        final StringBuilder line = new StringBuilder();
+        return this.readLine(line) ? line.toString() : null;
+    }
+}
@@ -1,139 +1,985 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.Consumer;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.function.IntBinaryOperator;
+import java.util.stream.IntStream;
 
 public class LogDB {
 
-    private Map<String, Node<Fact>> facts;
+    private static final int QUERY_BATCH_SIZE = 1 << 12;
+    private static final int DEFAULT_CACHE_CAPACITY = 1 << 16;
+    private static final int SNAPSHOT_MAGIC = 0x4C6F6744;
+    private static final int SNAPSHOT_VERSION = 1;
+    private static final Metrics.Timer LOAD_TIME = Metrics.timer("logdb.load");
+    private static final Metrics.Timer QUERY_TIME = Metrics.timer("logdb.query");
+    private static final Metrics.Histogram FACTS_SCANNED = Metrics.histogram("logdb.facts_scanned");
+    private static final Metrics.Counter CACHE_HITS = Metrics.counter("logdb.cache.hits");
+    private static final Metrics.Counter CACHE_MISSES = Metrics.counter("logdb.cache.misses");
+
+    private final SymbolTable symbols;
+    private final Map<Predicate, FactTable> tables;
+    private final boolean parallel;
+    private final QueryCache cache;
 
     public LogDB() {
-        this.facts = new HashMap<>();
+        this(false, DEFAULT_CACHE_CAPACITY);
+    }
+
+    /**
+     * @param parallel      whether a single query's scan may be split across the common fork-join pool
+     * @param cacheCapacity how many query results to remember, or 0 to disable the result cache
+     */
+    public LogDB(boolean parallel, int cacheCapacity) {
+        this.symbols = new SymbolTable();
+        this.tables = new HashMap<>();
+        this.parallel = parallel;
+        this.cache = cacheCapacity > 0 ? new QueryCache(cacheCapacity) : null;
     }
 
     public void addFacts(String inputString) {
-        final Pattern pattern = Pattern.compile("([a-zA-Z0-9][a-zA-Z0-9_]*)\\s*\\((.*?)\\)");
-        final Matcher matcher = pattern.matcher(inputString);
-        while (matcher.find()) {
-            final String name = matcher.group(1).trim();
-            final String argList = matcher.group(2).trim();
-            final Node<Fact> newNode = new Node<>();
-            newNode.data = new Fact(name, argList);
-            newNode.next = this.facts.get(name);
-            this.facts.put(name, newNode);
+        this.addFacts(new TermReader(new FastReader(ByteBuffer.wrap(inputString.getBytes(StandardCharsets.UTF_8)))), false);
+    }
+
+    private void addFacts(TermReader reader, boolean untilBlankLine) {
+        final Set<Predicate> changedPredicates = new HashSet<>();
+        Term term;
+        while ((term = reader.next(untilBlankLine)) != null) {
+            final String[] args = splitArgs(term.argList);
+            final int[] argIds = new int[args.length];
+            for (int i = 0; i < args.length; i++) {
+                argIds[i] = this.symbols.intern(args[i]);
+            }
+            final Predicate predicate = new Predicate(term.name, args.length);
+            final FactTable table = this.tables.get(predicate);
+            final HeapFactTable heapTable;
+            if (table instanceof HeapFactTable) {
+                heapTable = (HeapFactTable) table;
+            } else {
+                heapTable = table == null ? new HeapFactTable(predicate) : new HeapFactTable(predicate, table);
+                this.tables.put(predicate, heapTable);
+            }
+            heapTable.add(argIds);
+            changedPredicates.add(predicate);
+        }
+        if (this.cache != null) {
+            changedPredicates.forEach(this.cache::invalidate);
+        }
+    }
+
+    /**
+     * Writes the loaded fact base to {@code path} in a binary form that {@link #openSnapshot} can map straight back
+     * into memory. All numbers are big-endian and every section starts on a four-byte boundary:
+     * <pre>
+     * int magic, int version, long symbol section length,
+     *   per symbol: int length, UTF-8 bytes, padding
+     * int table count,
+     *   per table: int name length, name bytes, padding, int arity, int size, long body length, body
+     * </pre>
+     * Symbols appear in id order; the table body layout is described by {@link HeapFactTable#write}.
+     */
+    public void writeSnapshot(Path path) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(path), 1 << 16))) {
+            out.writeInt(SNAPSHOT_MAGIC);
+            out.writeInt(SNAPSHOT_VERSION);
+            final List<byte[]> symbolBytes = new ArrayList<>(this.symbols.symbols.size());
+            long symbolSectionBytes = 0;
+            for (String symbol : this.symbols.symbols) {
+                final byte[] bytes = symbol.getBytes(StandardCharsets.UTF_8);
+                symbolBytes.add(bytes);
+                symbolSectionBytes += Integer.BYTES + padded(bytes.length);
+            }
+            out.writeLong(symbolSectionBytes);
+            for (byte[] bytes : symbolBytes) {
+                writePadded(out, bytes);
+            }
+            out.writeInt(this.tables.size());
+            for (Map.Entry<Predicate, FactTable> entry : this.tables.entrySet()) {
+                final Predicate predicate = entry.getKey();
+                final HeapFactTable table = entry.getValue() instanceof HeapFactTable
+                        ? (HeapFactTable) entry.getValue()
+                        : new HeapFactTable(predicate, entry.getValue());
+                writePadded(out, predicate.name.getBytes(StandardCharsets.UTF_8));
+                out.writeInt(predicate.arity);
+                out.writeInt(table.size);
+                out.writeLong(table.bodyBytes());
+                table.write(out);
+            }
+        }
+    }
+
+    /**
+     * Opens a snapshot written by {@link #writeSnapshot}. Fact tables stay in the mapped file rather than on the heap;
+     * only the symbol table is read in. Adding facts to a predicate copies that predicate's table onto the heap first.
+     */
+    public static LogDB openSnapshot(Path path, boolean parallel, int cacheCapacity) throws IOException {
+        final LogDB logDB = new LogDB(parallel, cacheCapacity);
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            final ByteBuffer header = readFully(channel, 0, 2 * Integer.BYTES + Long.BYTES);
+            if (header.getInt() != SNAPSHOT_MAGIC) {
+                throw new IOException(path + " is not a LogDB snapshot");
+            }
+            final int version = header.getInt();
+            if (version != SNAPSHOT_VERSION) {
+                throw new IOException(String.format("%s has snapshot version %d, expected %d", path, version, SNAPSHOT_VERSION));
+            }
+            final long symbolSectionBytes = header.getLong();
+            long position = header.limit();
+            // the symbols end up on the heap anyway, so they are streamed in rather than mapped, which could not take
+            // a section over 2 GB
+            final DataInputStream symbolSection = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel.position(position)), 1 << 16));
+            for (long read = 0; read < symbolSectionBytes; ) {
+                final int length = symbolSection.readInt();
+                final byte[] bytes = new byte[length];
+                symbolSection.readFully(bytes);
+                symbolSection.skipNBytes(padded(length) - length);
+                logDB.symbols.intern(new String(bytes, StandardCharsets.UTF_8));
+                read += Integer.BYTES + padded(length);
+            }
+            position += symbolSectionBytes;
+            final int numTables = readFully(channel, position, Integer.BYTES).getInt();
+            position += Integer.BYTES;
+            for (int i = 0; i < numTables; i++) {
+                final int nameLength = readFully(channel, position, Integer.BYTES).getInt();
+                final ByteBuffer tableHeader = readFully(channel, position, Integer.BYTES + padded(nameLength) + 2 * Integer.BYTES + Long.BYTES);
+                final String name = readPadded(tableHeader);
+                final int arity = tableHeader.getInt();
+                final int size = tableHeader.getInt();
+                final long bodyBytes = tableHeader.getLong();
+                position += tableHeader.limit();
+                logDB.tables.put(new Predicate(name, arity), new MappedFactTable(arity, size, channel, position));
+                position += bodyBytes;
+            }
+        }
+        return logDB;
+    }
+
+    private static int padded(int length) {
+        return (length + Integer.BYTES - 1) & -Integer.BYTES;
+    }
+
+    private static void writePadded(DataOutputStream out, byte[] bytes) throws IOException {
+        out.writeInt(bytes.length);
+        out.write(bytes);
+        for (int i = bytes.length; i < padded(bytes.length); i++) {
+            out.writeByte(0);
+        }
+    }
+
+    private static String readPadded(ByteBuffer buffer) {
+        final int length = buffer.getInt();
+        final byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        buffer.position(buffer.position() + padded(length) - length);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static ByteBuffer readFully(FileChannel channel, long position, int length) throws IOException {
+        final ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new EOFException("LogDB snapshot ends early");
+            }
         }
+        return buffer.flip();
     }
 
-    private static class Fact {
+    /**
+     * Counts the facts matching the query {@code name(argList)}.
+     */
+    public int count(String name, String argList) {
+        return this.count(new Query(name, argList));
+    }
+
+    private int count(Query query) {
+        final long start = QUERY_TIME.start();
+        final int numMatches = this.countUntimed(query);
+        QUERY_TIME.stop(start);
+        return numMatches;
+    }
+
+    private int countUntimed(Query query) {
+        final Predicate predicate = new Predicate(query.name, query.args.length);
+        final FactTable table = this.tables.get(predicate);
+        if (table == null) return 0;
+        final QueryPlan plan = new QueryPlan(query, this.symbols);
+        if (this.cache == null || !plan.satisfiable) {
+            return table.count(plan, this.parallel);
+        }
+        final QueryCache.Key key = new QueryCache.Key(predicate, plan);
+        Integer numMatches = this.cache.get(key);
+        if (numMatches != null) {
+            CACHE_HITS.increment();
+        } else {
+            CACHE_MISSES.increment();
+            numMatches = table.count(plan, this.parallel);
+            this.cache.put(key, numMatches);
+        }
+        return numMatches;
+    }
+
+    private static String[] splitArgs(String argList) {
+        final String[] args = argList.split(",");
+        for (int i = 0; i < args.length; i++) {
+            args[i] = args[i].trim();
+        }
+        return args;
+    }
+
+    private static class SymbolTable {
+        private final Map<String, Integer> ids;
+        private final List<String> symbols;
+
+        private SymbolTable() {
+            this.ids = new HashMap<>();
+            this.symbols = new ArrayList<>();
+        }
+
+        int intern(String symbol) {
+            Integer id = this.ids.get(symbol);
+            if (id == null) {
+                id = this.symbols.size();
+                this.ids.put(symbol, id);
+                this.symbols.add(symbol);
+            }
+            return id;
+        }
+
+        /**
+         * Returns the id of {@code symbol}, or -1 when no fact has ever used it.
+         */
+        int lookup(String symbol) {
+            return this.ids.getOrDefault(symbol, -1);
+        }
+    }
+
+    private static class Query {
         final String name;
         final String[] args;
 
-        public Fact(String name, String argList) {
+        public Query(String name, String argList) {
             this.name = name;
-            this.args = argList.split(",");
-            for (int i = 0; i < this.args.length; i++) {
-                 this.args[i] = this.args[i].trim();
-            }
+            this.args = splitArgs(argList);
         }
 
-        boolean matches(Query q) {
-            if (!this.name.equals(q.name)) return false;
-            if (this.args.length != q.args.length) return false;
-            final Map<String, String> variableValues = new HashMap<>();
-            boolean matches = true;
-            for (int i = 0; i < this.args.length && matches; i++) {
+        @Override
+        public String toString() {
+            return String.format("%s(%s)", this.name, String.join(", ", this.args));
+        }
+    }
+
+    /**
+     * A query compiled against the symbol table. Constants become symbol ids to compare against, and every repeated
+     * variable becomes an equality constraint between the position of its first occurrence and each later one. Any
+     * position not mentioned by either is a wildcard.
+     */
+    private static class QueryPlan {
+        final int[] constantPositions;
+        final int[] constantValues;
+        final int[] equalityPositions;
+        final boolean satisfiable;
+
+        private QueryPlan(Query query, SymbolTable symbols) {
+            final Map<String, Integer> firstOccurrences = new HashMap<>();
+            final int[] constantPositions = new int[query.args.length];
+            final int[] constantValues = new int[query.args.length];
+            final int[] equalityPositions = new int[2 * query.args.length];
+            int numConstants = 0;
+            int numEqualityPositions = 0;
+            boolean satisfiable = true;
+            for (int i = 0; i < query.args.length; i++) {
+                final String arg = query.args[i];
                 // ignore query arguments that are just "_"
-                if (!q.args[i].equals("_")) {
-                    if (q.args[i].startsWith("_")) {
-                        if (variableValues.containsKey(q.args[i])) {
-                            matches = this.args[i].equals(variableValues.get(q.args[i]));
-                        } else {
-                            variableValues.put(q.args[i], this.args[i]);
+                if (!arg.equals("_")) {
+                    if (arg.startsWith("_")) {
+                        final Integer firstOccurrence = firstOccurrences.putIfAbsent(arg, i);
+                        if (firstOccurrence != null) {
+                            equalityPositions[numEqualityPositions++] = firstOccurrence;
+                            equalityPositions[numEqualityPositions++] = i;
                         }
                     } else {
-                        matches = q.args[i].equals(this.args[i]);
+                        constantPositions[numConstants] = i;
+                        constantValues[numConstants] = symbols.lookup(arg);
+                        satisfiable &= constantValues[numConstants] != -1;
+                        numConstants++;
                     }
                 }
             }
-            return matches;
+            this.constantPositions = Arrays.copyOf(constantPositions, numConstants);
+            this.constantValues = Arrays.copyOf(constantValues, numConstants);
+            this.equalityPositions = Arrays.copyOf(equalityPositions, numEqualityPositions);
+            this.satisfiable = satisfiable;
         }
 
-        @Override
-        public String toString() {
-            return String.format("%s(%s)", this.name, String.join(", ", this.args));
+        boolean satisfiesEqualities(FactTable table, int id) {
+            for (int i = 0; i < this.equalityPositions.length; i += 2) {
+                if (table.arg(id, this.equalityPositions[i]) != table.arg(id, this.equalityPositions[i + 1])) {
+                    return false;
+                }
+            }
+            return true;
         }
     }
 
-    private static class Query {
+    /**
+     * A map from query to match count that evicts by the clock approximation of least recently used. A hit only marks
+     * its entry as used, so lookups from the fork-join batches share no lock; adding an entry when full sweeps a hand
+     * over the slots, unmarking entries until it finds one not used since the hand last passed. Queries are keyed by
+     * their compiled plan, which does not depend on variable names, so {@code foo(_x,_x)} and {@code foo(_y,_y)} share
+     * an entry.
+     */
+    private static class QueryCache {
+        private final ConcurrentHashMap<Key, Entry> counts;
+        private final Entry[] slots;
+        private int hand;
+
+        private QueryCache(int capacity) {
+            this.counts = new ConcurrentHashMap<>();
+            this.slots = new Entry[capacity];
+            this.hand = 0;
+        }
+
+        private static class Entry {
+            final Key key;
+            final int numMatches;
+            volatile boolean used;
+
+            private Entry(Key key, int numMatches) {
+                this.key = key;
+                this.numMatches = numMatches;
+            }
+        }
+
+        Integer get(Key key) {
+            final Entry entry = this.counts.get(key);
+            if (entry == null) return null;
+            // checked first so that hot entries are not written to over and over from every core
+            if (!entry.used) entry.used = true;
+            return entry.numMatches;
+        }
+
+        synchronized void put(Key key, int numMatches) {
+            if (this.counts.containsKey(key)) return;
+            while (this.slots[this.hand] != null && this.slots[this.hand].used) {
+                this.slots[this.hand].used = false;
+                this.hand = (this.hand + 1) % this.slots.length;
+            }
+            final Entry evicted = this.slots[this.hand];
+            if (evicted != null) {
+                this.counts.remove(evicted.key, evicted);
+            }
+            final Entry entry = new Entry(key, numMatches);
+            this.slots[this.hand] = entry;
+            this.counts.put(key, entry);
+            this.hand = (this.hand + 1) % this.slots.length;
+        }
+
+        synchronized void invalidate(Predicate predicate) {
+            for (int i = 0; i < this.slots.length; i++) {
+                final Entry entry = this.slots[i];
+                if (entry != null && entry.key.predicate.equals(predicate)) {
+                    this.counts.remove(entry.key, entry);
+                    this.slots[i] = null;
+                }
+            }
+        }
+
+        private static class Key {
+            final Predicate predicate;
+            final int[] shape;
+
+            private Key(Predicate predicate, QueryPlan plan) {
+                this.predicate = predicate;
+                final int numConstants = plan.constantPositions.length;
+                this.shape = new int[1 + 2 * numConstants + plan.equalityPositions.length];
+                this.shape[0] = numConstants;
+                System.arraycopy(plan.constantPositions, 0, this.shape, 1, numConstants);
+                System.arraycopy(plan.constantValues, 0, this.shape, 1 + numConstants, numConstants);
+                System.arraycopy(plan.equalityPositions, 0, this.shape, 1 + 2 * numConstants, plan.equalityPositions.length);
+            }
+
+            @Override
+            public boolean equals(Object o) {
+                if (this == o) return true;
+                if (o == null || getClass() != o.getClass()) return false;
+                Key key = (Key) o;
+                return predicate.equals(key.predicate) && Arrays.equals(shape, key.shape);
+            }
+
+            @Override
+            public int hashCode() {
+                return 31 * predicate.hashCode() + Arrays.hashCode(shape);
+            }
+        }
+    }
+
+    private static class Predicate {
         final String name;
-        final String[] args;
+        final int arity;
 
-        public Query(String name, String argList) {
+        private Predicate(String name, int arity) {
             this.name = name;
-            this.args = argList.split(",");
-            for (int i = 0; i < this.args.length; i++) {
-                this.args[i] = this.args[i].trim();
-            }
+            this.arity = arity;
         }
 
         @Override
-        public String toString() {
-            return String.format("%s(%s)", this.name, String.join(", ", this.args));
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            Predicate that = (Predicate) o;
+            return arity == that.arity && name.equals(that.name);
         }
-    }
 
-    private static class Node<T> {
-        Node<T> next;
-        T data;
+        @Override
+        public int hashCode() {
+            return Objects.hash(name, arity);
+        }
 
         @Override
         public String toString() {
-            return this.data.toString() + (this.next != null ? " -> " + this.next.toString() : "");
+            return String.format("%s/%d", this.name, this.arity);
         }
     }
 
-    public static void main(String[] args) {
-        final Scanner scanner = new Scanner(System.in);
-        final String factsInput = getFactsInputString(scanner);
-        final String queriesInputString = getQueriesInputStream(scanner);
-        scanner.close();
+    /**
+     * All facts of one predicate and arity, each referred to by its position in the table. Every argument position
+     * keeps an index from symbol id to the ascending ids of the facts holding that symbol there.
+     */
+    private abstract static class FactTable {
+        private static final int SPLIT_THRESHOLD = 1 << 16;
 
-        final LogDB logDB = new LogDB();
-        logDB.addFacts(factsInput);
-//        logDB.facts.values().forEach(System.out::println);
+        final int arity;
 
-        final Pattern pattern = Pattern.compile("([a-zA-Z0-9][a-zA-Z0-9_]*)\\s*\\((.*?)\\)");
-        final Matcher matcher = pattern.matcher(queriesInputString);
-        while (matcher.find()) {
-            final String name = matcher.group(1).trim();
-            final String argList = matcher.group(2).trim();
-            final Query query = new Query(name, argList);
+        private FactTable(int arity) {
+            this.arity = arity;
+        }
+
+        abstract int size();
+
+        abstract int arg(int id, int position);
+
+        /**
+         * Returns the ids of the facts holding {@code value} at {@code position}, or null when there are none.
+         */
+        abstract PostingList postings(int position, int value);
+
+        int count(QueryPlan plan, boolean parallel) {
+            if (!plan.satisfiable) return 0;
+            if (plan.constantPositions.length == 0) {
+                FACTS_SCANNED.record(this.size());
+                return countScan(plan, 0, this.size(), parallel);
+            }
+            final PostingList[] constantPostings = new PostingList[plan.constantPositions.length];
+            for (int i = 0; i < constantPostings.length; i++) {
+                constantPostings[i] = this.postings(plan.constantPositions[i], plan.constantValues[i]);
+                if (constantPostings[i] == null) return 0;
+            }
+            Arrays.sort(constantPostings, Comparator.comparingInt(PostingList::size));
+            FACTS_SCANNED.record(constantPostings[0].size());
+            return countIntersection(plan, constantPostings, 0, constantPostings[0].size(), parallel);
+        }
+
+        private int countScan(QueryPlan plan, int from, int to, boolean parallel) {
+            if (parallel && to - from > SPLIT_THRESHOLD) {
+                return splitCount(from, to, (chunkFrom, chunkTo) -> countScan(plan, chunkFrom, chunkTo, false));
+            }
+            int numMatches = 0;
+            for (int id = from; id < to; id++) {
+                if (plan.satisfiesEqualities(this, id)) numMatches++;
+            }
+            return numMatches;
+        }
+
+        /**
+         * Counts the matching facts among {@code from} until {@code to} of the smallest posting list, which must be
+         * first in {@code constantPostings}.
+         */
+        private int countIntersection(QueryPlan plan, PostingList[] constantPostings, int from, int to, boolean parallel) {
+            if (parallel && to - from > SPLIT_THRESHOLD) {
+                return splitCount(from, to, (chunkFrom, chunkTo) -> countIntersection(plan, constantPostings, chunkFrom, chunkTo, false));
+            }
+            final PostingList smallest = constantPostings[0];
+            final int[] cursors = new int[constantPostings.length];
             int numMatches = 0;
-            for (Node<Fact> fact = logDB.facts.get(query.name); fact != null; fact = fact.next) {
-                if (fact.data.matches(query)) numMatches++;
+            for (int i = from; i < to; i++) {
+                final int id = smallest.get(i);
+                boolean inAll = true;
+                for (int p = 1; p < constantPostings.length && inAll; p++) {
+                    final PostingList other = constantPostings[p];
+                    cursors[p] = other.seek(id, cursors[p]);
+                    inAll = cursors[p] < other.size() && other.get(cursors[p]) == id;
+                }
+                if (inAll && plan.satisfiesEqualities(this, id)) numMatches++;
+            }
+            return numMatches;
+        }
+
+        private static int splitCount(int from, int to, IntBinaryOperator countChunk) {
+            final int numChunks = (to - from + SPLIT_THRESHOLD - 1) / SPLIT_THRESHOLD;
+            return IntStream.range(0, numChunks)
+                    .parallel()
+                    .map(chunk -> countChunk.applyAsInt(from + chunk * SPLIT_THRESHOLD, Math.min(to, from + (chunk + 1) * SPLIT_THRESHOLD)))
+                    .sum();
+        }
+    }
+
+    /**
+     * A fact table built up on the heap as facts are added. Arguments are laid out fact after fact in a single array,
+     * so fact {@code id} occupies {@code args[id * arity]} up to {@code args[(id + 1) * arity]}.
+     */
+    private static class HeapFactTable extends FactTable {
+        int[] args;
+        int size;
+        final List<Map<Integer, HeapPostingList>> argumentIndex;
+
+        private HeapFactTable(Predicate predicate) {
+            super(predicate.arity);
+            this.args = new int[Math.max(this.arity, 1) * 4];
+            this.size = 0;
+            this.argumentIndex = new ArrayList<>(predicate.arity);
+            for (int i = 0; i < predicate.arity; i++) {
+                this.argumentIndex.add(new HashMap<>());
             }
-            System.out.println(numMatches);
         }
 
+        /**
+         * Copies {@code table} onto the heap so that more facts can be added to it.
+         */
+        private HeapFactTable(Predicate predicate, FactTable table) {
+            this(predicate);
+            final int[] factArgs = new int[this.arity];
+            for (int id = 0; id < table.size(); id++) {
+                for (int i = 0; i < this.arity; i++) {
+                    factArgs[i] = table.arg(id, i);
+                }
+                this.add(factArgs);
+            }
+        }
+
+        void add(int[] factArgs) {
+            final int id = this.size++;
+            if (this.size * this.arity > this.args.length) {
+                this.args = Arrays.copyOf(this.args, this.args.length * 2);
+            }
+            System.arraycopy(factArgs, 0, this.args, id * this.arity, this.arity);
+            for (int i = 0; i < this.arity; i++) {
+                this.argumentIndex.get(i).computeIfAbsent(factArgs[i], arg -> new HeapPostingList()).add(id);
+            }
+        }
+
+        @Override
+        int size() {
+            return this.size;
+        }
+
+        @Override
+        int arg(int id, int position) {
+            return this.args[id * this.arity + position];
+        }
+
+        @Override
+        PostingList postings(int position, int value) {
+            return this.argumentIndex.get(position).get(value);
+        }
+
+        /**
+         * Writes the table body in the layout read back by {@link MappedFactTable}: the arguments, then for each
+         * position the number of distinct values, those values ascending, the offset of each value's ids within the
+         * position's postings followed by the end offset, and finally the postings themselves.
+         */
+        void write(DataOutputStream out) throws IOException {
+            for (int i = 0; i < this.size * this.arity; i++) {
+                out.writeInt(this.args[i]);
+            }
+            for (Map<Integer, HeapPostingList> index : this.argumentIndex) {
+                final int[] values = index.keySet().stream().mapToInt(Integer::intValue).sorted().toArray();
+                out.writeInt(values.length);
+                for (int value : values) {
+                    out.writeInt(value);
+                }
+                int offset = 0;
+                for (int value : values) {
+                    out.writeInt(offset);
+                    offset += index.get(value).size;
+                }
+                out.writeInt(offset);
+                for (int value : values) {
+                    final HeapPostingList postings = index.get(value);
+                    for (int i = 0; i < postings.size; i++) {
+                        out.writeInt(postings.ids[i]);
+                    }
+                }
+            }
+        }
+
+        long bodyBytes() {
+            long ints = (long) this.size * this.arity;
+            for (Map<Integer, HeapPostingList> index : this.argumentIndex) {
+                ints += 2L + 2L * index.size() + this.size;
+            }
+            return ints * Integer.BYTES;
+        }
     }
 
-    private static String getQueriesInputStream(Scanner scanner) {
-        final StringBuilder queriesInputStringBuilder = new StringBuilder();
-        while(scanner.hasNextLine()) {
-            queriesInputStringBuilder.append(scanner.nextLine());
-            queriesInputStringBuilder.append(" ");
+    /**
+     * Ints in a snapshot file, mapped a window at a time since a single mapping cannot be larger than 2 GB.
+     */
+    private static class MappedInts {
+        private static final int WINDOW_SHIFT = 28;
+        private static final int WINDOW_MASK = (1 << WINDOW_SHIFT) - 1;
+
+        final int length;
+        private final IntBuffer[] windows;
+
+        private MappedInts(FileChannel channel, long position, int length) throws IOException {
+            this.length = length;
+            this.windows = new IntBuffer[(int) ((length + (long) WINDOW_MASK) >>> WINDOW_SHIFT)];
+            for (int w = 0; w < this.windows.length; w++) {
+                final long from = (long) w << WINDOW_SHIFT;
+                final long numInts = Math.min(1L << WINDOW_SHIFT, length - from);
+                this.windows[w] = channel.map(FileChannel.MapMode.READ_ONLY, position + from * Integer.BYTES, numInts * Integer.BYTES).asIntBuffer();
+            }
+        }
+
+        int get(int index) {
+            return this.windows[index >>> WINDOW_SHIFT].get(index & WINDOW_MASK);
+        }
+
+        /**
+         * Returns the file position just past these ints, given the {@code position} they start at.
+         */
+        long end(long position) {
+            return position + (long) this.length * Integer.BYTES;
         }
-        return queriesInputStringBuilder.toString();
     }
 
-    private static String getFactsInputString(Scanner scanner) {
-        final StringBuilder factsInputBuilder = new StringBuilder();
-        String currentLine;
-        while (!(currentLine = scanner.nextLine()).isBlank()) {
-            factsInputBuilder.append(currentLine);
-            factsInputBuilder.append(" ");
+    /**
+     * A read-only fact table over a memory-mapped snapshot body written by {@link HeapFactTable#write}.
+     */
+    private static class MappedFactTable extends FactTable {
+        final int size;
+        final MappedInts args;
+        final MappedInts[] values;
+        final MappedInts[] offsets;
+        final MappedInts[] postings;
+
+        /**
+         * Maps the table body starting at {@code position} of the snapshot.
+         */
+        private MappedFactTable(int arity, int size, FileChannel channel, long position) throws IOException {
+            super(arity);
+            this.size = size;
+            this.args = new MappedInts(channel, position, Math.multiplyExact(size, arity));
+            position = this.args.end(position);
+            this.values = new MappedInts[arity];
+            this.offsets = new MappedInts[arity];
+            this.postings = new MappedInts[arity];
+            for (int i = 0; i < arity; i++) {
+                final int numValues = readFully(channel, position, Integer.BYTES).getInt();
+                position += Integer.BYTES;
+                this.values[i] = new MappedInts(channel, position, numValues);
+                position = this.values[i].end(position);
+                this.offsets[i] = new MappedInts(channel, position, numValues + 1);
+                position = this.offsets[i].end(position);
+                this.postings[i] = new MappedInts(channel, position, size);
+                position = this.postings[i].end(position);
+            }
+        }
+
+        @Override
+        int size() {
+            return this.size;
+        }
+
+        @Override
+        int arg(int id, int position) {
+            return this.args.get(id * this.arity + position);
+        }
+
+        @Override
+        PostingList postings(int position, int value) {
+            final MappedInts positionValues = this.values[position];
+            int low = 0;
+            int high = positionValues.length - 1;
+            while (low <= high) {
+                final int mid = (low + high) >>> 1;
+                final int midValue = positionValues.get(mid);
+                if (midValue < value) {
+                    low = mid + 1;
+                } else if (midValue > value) {
+                    high = mid - 1;
+                } else {
+                    return new MappedPostingList(this.postings[position], this.offsets[position].get(mid), this.offsets[position].get(mid + 1));
+                }
+            }
+            return null;
+        }
+    }
+
+    private abstract static class PostingList {
+        abstract int size();
+
+        abstract int get(int index);
+
+        /**
+         * Finds the first index at or after {@code from} whose id is not less than {@code id}, galloping ahead before
+         * binary searching so that intersecting a short list with a long one stays cheap.
+         */
+        int seek(int id, int from) {
+            final int size = this.size();
+            int step = 1;
+            int low = from;
+            int high = from;
+            while (high < size && this.get(high) < id) {
+                low = high + 1;
+                high += step;
+                step <<= 1;
+            }
+            high = Math.min(high, size) - 1;
+            while (low <= high) {
+                final int mid = (low + high) >>> 1;
+                if (this.get(mid) < id) {
+                    low = mid + 1;
+                } else {
+                    high = mid - 1;
+                }
+            }
+            return low;
+        }
+    }
+
+    private static class HeapPostingList extends PostingList {
+        int[] ids;
+        int size;
+
+        private HeapPostingList() {
+            this.ids = new int[4];
+            this.size = 0;
+        }
+
+        void add(int id) {
+            if (this.size == this.ids.length) {
+                this.ids = Arrays.copyOf(this.ids, this.size * 2);
+            }
+            this.ids[this.size++] = id;
+        }
+
+        @Override
+        int size() {
+            return this.size;
+        }
+
+        @Override
+        int get(int index) {
+            return this.ids[index];
+        }
+    }
+
+    private static class MappedPostingList extends PostingList {
+        final MappedInts postings;
+        final int from;
+        final int size;
+
+        private MappedPostingList(MappedInts postings, int from, int to) {
+            this.postings = postings;
+            this.from = from;
+            this.size = to - from;
+        }
+
+        @Override
+        int size() {
+            return this.size;
+        }
+
+        @Override
+        int get(int index) {
+            return this.postings.get(this.from + index);
+        }
+    }
+
+    private static class Term {
+        final String name;
+        final String argList;
+
+        private Term(String name, String argList) {
+            this.name = name;
+            this.argList = argList;
+        }
+    }
+
+    /**
+     * Reads {@code name(args)} terms straight off a {@link FastReader}, so neither the facts nor the queries ever need
+     * to be held in memory as a whole. A term is recognised exactly where the pattern
+     * {@code ([a-zA-Z0-9][a-zA-Z0-9_]*)\\s*\\((.*?)\\)} would find it in the input with its lines joined by spaces, and
+     * terms may straddle both line and buffer boundaries.
+     */
+    private static class TermReader {
+        private final FastReader in;
+        private final StringBuilder name;
+        private byte[] argBytes;
+        private int argLength;
+        private boolean lineHasContent;
+
+        private TermReader(FastReader in) {
+            this.in = in;
+            this.name = new StringBuilder();
+            this.argBytes = new byte[64];
+            this.argLength = 0;
+            this.lineHasContent = false;
+        }
+
+        boolean hasBufferedInput() {
+            return this.in.hasBufferedInput();
+        }
+
+        /**
+         * Returns the next term, or null at the end of input or, when {@code stopAtBlankLine} is set, at the first
+         * blank line. A term left unterminated by either is dropped.
+         */
+        Term next(boolean stopAtBlankLine) {
+            this.name.setLength(0);
+            boolean afterName = false;
+            int c;
+            while ((c = this.in.read()) != -1) {
+                if (c == '\n') {
+                    if (stopAtBlankLine && !this.lineHasContent) return null;
+                    this.lineHasContent = false;
+                    afterName = this.name.length() > 0;
+                } else if (isWhitespace(c)) {
+                    afterName = this.name.length() > 0;
+                } else {
+                    this.lineHasContent = true;
+                    if (c == '(' && this.name.length() > 0) {
+                        if (this.readArgs(stopAtBlankLine)) {
+                            return new Term(this.name.toString(), new String(this.argBytes, 0, this.argLength, StandardCharsets.UTF_8).trim());
+                        }
+                        return null;
+                    } else if (isNameChar(c) && !afterName && (this.name.length() > 0 || c != '_')) {
+                        this.name.append((char) c);
+                    } else {
+                        this.name.setLength(0);
+                        afterName = false;
+                        if (isNameChar(c) && c != '_') this.name.append((char) c);
+                    }
+                }
+            }
+            return null;
+        }
+
+        private boolean readArgs(boolean stopAtBlankLine) {
+            this.argLength = 0;
+            int c;
+            while ((c = this.in.read()) != -1) {
+                if (c == ')') {
+                    this.lineHasContent = true;
+                    return true;
+                } else if (c == '\n') {
+                    if (stopAtBlankLine && !this.lineHasContent) return false;
+                    this.lineHasContent = false;
+                    this.appendArgByte(' ');
+                } else if (c != '\r') {
+                    this.lineHasContent |= !isWhitespace(c);
+                    this.appendArgByte(c);
+                }
+            }
+            return false;
+        }
+
+        private void appendArgByte(int c) {
+            if (this.argLength == this.argBytes.length) {
+                this.argBytes = Arrays.copyOf(this.argBytes, this.argLength * 2);
+            }
+            this.argBytes[this.argLength++] = (byte) c;
+        }
+
+        private static boolean isWhitespace(int c) {
+            return c == ' ' || c == '\t' || c == '\r' || c == '\f' || c == 0x0B;
+        }
+
+        private static boolean isNameChar(int c) {
+            return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '_';
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        run(args, System.in, System.out);
+    }
+
+    public static void run(String[] args, InputStream in, OutputStream out) throws IOException {
+        boolean parallel = false;
+        int cacheCapacity = DEFAULT_CACHE_CAPACITY;
+        Path snapshot = null;
+        Path snapshotToWrite = null;
+        for (String arg : args) {
+            if (arg.equals("--parallel")) {
+                parallel = true;
+            } else if (arg.startsWith("--cache=")) {
+                cacheCapacity = Integer.parseInt(arg.substring("--cache=".length()));
+            } else if (arg.startsWith("--snapshot=")) {
+                snapshot = Paths.get(arg.substring("--snapshot=".length()));
+            } else if (arg.startsWith("--write-snapshot=")) {
+                snapshotToWrite = Paths.get(arg.substring("--write-snapshot=".length()));
+            }
+        }
+        final TermReader reader = new TermReader(new FastReader(in));
+        final PrintWriter writer = new PrintWriter(new BufferedWriter(new OutputStreamWriter(out)));
+
+        // with a snapshot the facts come from the file and the input holds only queries
+        final LogDB logDB;
+        final long loadStart = LOAD_TIME.start();
+        if (snapshot != null) {
+            logDB = openSnapshot(snapshot, parallel, cacheCapacity);
+        } else {
+            logDB = new LogDB(parallel, cacheCapacity);
+            logDB.addFacts(reader, true);
+        }
+        LOAD_TIME.stop(loadStart);
+        if (snapshotToWrite != null) {
+            logDB.writeSnapshot(snapshotToWrite);
+        }
+
+        if (parallel) {
+            answerInBatches(logDB, reader, writer);
+        } else {
+            Term term;
+            while ((term = reader.next(false)) != null) {
+                writer.println(logDB.count(new Query(term.name, term.argList)));
+                if (!reader.hasBufferedInput()) writer.flush();
+            }
+        }
+        writer.flush();
+    }
+
+    /**
+     * Answers queries a batch at a time across the common fork-join pool, writing the counts in query order. A batch
+     * is cut short whenever the reader runs out of buffered input so that answers are not held back waiting on it.
+     */
+    private static void answerInBatches(LogDB logDB, TermReader reader, PrintWriter out) {
+        final Query[] batch = new Query[QUERY_BATCH_SIZE];
+        final int[] counts = new int[QUERY_BATCH_SIZE];
+        boolean moreQueries = true;
+        while (moreQueries) {
+            int batchSize = 0;
+            Term term = null;
+            while (batchSize < batch.length && (batchSize == 0 || reader.hasBufferedInput()) && (term = reader.next(false)) != null) {
+                batch[batchSize++] = new Query(term.name, term.argList);
+            }
+            moreQueries = term != null;
+            IntStream.range(0, batchSize).parallel().forEach(i -> counts[i] = logDB.count(batch[i]));
+            for (int i = 0; i < batchSize; i++) {
+                out.println(counts[i]);
+            }
+            out.flush();
         }
-        return factsInputBuilder.toString();
     }
 
 }
@@ -0,0 +1,301 @@
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Period;
+
+/**
+ * Counters, timers and histograms for the solvers' hot paths. They are off unless the {@code solvers.metrics} system
+ * property is set, and every recording method first tests the constant {@link #ENABLED}, so when off the JIT compiles
+ * the calls away. When on, a summary of every metric is written at exit:
+ * <ul>
+ *     <li>{@code -Dsolvers.metrics} or {@code -Dsolvers.metrics=stderr} prints it to standard error</li>
+ *     <li>{@code -Dsolvers.metrics=FILE.json} writes it to that file as JSON</li>
+ * </ul>
+ * While metrics are on, a JFR recording also gets a {@code solvers.Metric} event per metric every second.
+ */
+public class Metrics {
+
+    public static final boolean ENABLED = System.getProperty("solvers.metrics") != null;
+
+    private static final Map<String, Metric> METRICS = new ConcurrentSkipListMap<>();
+
+    static {
+        if (ENABLED) {
+            FlightRecorder.addPeriodicEvent(MetricEvent.class, Metrics::emitEvents);
+            Runtime.getRuntime().addShutdownHook(new Thread(Metrics::dump, "metrics-dump"));
+        }
+    }
+
+    private abstract static class Metric {
+        final String name;
+
+        private Metric(String name) {
+            this.name = name;
+        }
+
+        abstract String kind();
+
+        abstract long count();
+
+        abstract long total();
+
+        abstract long max();
+
+        abstract long percentile(double p);
+    }
+
+    public static class Counter extends Metric {
+        private final LongAdder value;
+
+        private Counter(String name) {
+            super(name);
+            this.value = new LongAdder();
+        }
+
+        public void increment() {
+            if (ENABLED) this.value.increment();
+        }
+
+        public void add(long amount) {
+            if (ENABLED) this.value.add(amount);
+        }
+
+        @Override
+        String kind() {
+            return "counter";
+        }
+
+        @Override
+        long count() {
+            return this.value.sum();
+        }
+
+        @Override
+        long total() {
+            return this.value.sum();
+        }
+
+        @Override
+        long max() {
+            return this.value.sum();
+        }
+
+        @Override
+        long percentile(double p) {
+            return this.value.sum();
+        }
+    }
+
+    /**
+     * Records non-negative values into power-of-two buckets, so percentiles come out as the upper bound of the bucket
+     * they fall in.
+     */
+    public static class Histogram extends Metric {
+        private final LongAdder count;
+        private final LongAdder total;
+        private final LongAccumulator max;
+        private final AtomicLongArray buckets;
+
+        private Histogram(String name) {
+            super(name);
+            this.count = new LongAdder();
+            this.total = new LongAdder();
+            this.max = new LongAccumulator(Math::max, 0);
+            this.buckets = new AtomicLongArray(Long.SIZE + 1);
+        }
+
+        public void record(long value) {
+            if (!ENABLED) return;
+            final long clamped = Math.max(0, value);
+            this.count.increment();
+            this.total.add(clamped);
+            this.max.accumulate(clamped);
+            this.buckets.incrementAndGet(Long.SIZE - Long.numberOfLeadingZeros(clamped));
+        }
+
+        @Override
+        String kind() {
+            return "histogram";
+        }
+
+        @Override
+        long count() {
+            return this.count.sum();
+        }
+
+        @Override
+        long total() {
+            return this.total.sum();
+        }
+
+        @Override
+        long max() {
+            return this.max.get();
+        }
+
+        @Override
+        long percentile(double p) {
+            final long rank = (long) Math.ceil(p * this.count());
+            long seen = 0;
+            for (int bucket = 0; bucket < this.buckets.length(); bucket++) {
+                seen += this.buckets.get(bucket);
+                if (seen >= rank && seen > 0) {
+                    return Math.min(this.max(), bucket == 0 ? 0 : bucket == Long.SIZE ? Long.MAX_VALUE : (1L << bucket) - 1);
+                }
+            }
+            return 0;
+        }
+    }
+
+    /**
+     * A histogram of elapsed nanoseconds.
+     */
+    public static class Timer extends Histogram {
+        private Timer(String name) {
+            super(name);
+        }
+
+        /**
+         * Returns the start time to pass to {@link #stop(long)}.
+         */
+        public long start() {
+            return ENABLED ? System.nanoTime() : 0;
+        }
+
+        public void stop(long start) {
+            if (ENABLED) this.record(System.nanoTime() - start);
+        }
+
+        @Override
+        String kind() {
+            return "timer";
+        }
+    }
+
+    public static Counter counter(String name) {
+        return register(name, Counter::new, Counter.class);
+    }
+
+    public static Histogram histogram(String name) {
+        return register(name, Histogram::new, Histogram.class);
+    }
+
+    public static Timer timer(String name) {
+        return register(name, Timer::new, Timer.class);
+    }
+
+    /**
+     * Returns the nanoseconds recorded so far by every timer, by name.
+     */
+    public static Map<String, Long> timerTotals() {
+        final Map<String, Long> totals = new TreeMap<>();
+        for (Metric metric : METRICS.values()) {
+            if (metric instanceof Timer) totals.put(metric.name, metric.total());
+        }
+        return totals;
+    }
+
+    private static <M extends Metric> M register(String name, Function<String, M> create, Class<M> type) {
+        final Metric metric = METRICS.computeIfAbsent(name, create);
+        if (metric.getClass() != type) {
+            throw new IllegalArgumentException(name + " is already a " + metric.kind());
+        }
+        return type.cast(metric);
+    }
+
+    @Name("solvers.Metric")
+    @Label("Solver Metric")
+    @Category("Solvers")
+    @Description("The value of one solver metric so far")
+    @Period("1 s")
+    private static class MetricEvent extends Event {
+        @Label("Name")
+        String name;
+        @Label("Kind")
+        String kind;
+        @Label("Count")
+        long count;
+        @Label("Total")
+        long total;
+        @Label("Max")
+        long max;
+        @Label("Median")
+        long p50;
+        @Label("99th Percentile")
+        long p99;
+    }
+
+    private static void emitEvents() {
+        for (Metric metric : METRICS.values()) {
+            final MetricEvent event = new MetricEvent();
+            event.name = metric.name;
+            event.kind = metric.kind();
+            event.count = metric.count();
+            event.total = metric.total();
+            event.max = metric.max();
+            event.p50 = metric.percentile(0.5);
+            event.p99 = metric.percentile(0.99);
+            event.commit();
+        }
+    }
+
+    /**
+     * Writes every metric to where {@code solvers.metrics} says.
+     */
+    public static void dump() {
+        final String target = System.getProperty("solvers.metrics", "");
+        if (target.endsWith(".json")) {
+            try {
+                Files.write(Paths.get(target), toJson().getBytes(StandardCharsets.UTF_8));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        } else {
+            print(System.err);
+        }
+    }
+
+    private static void print(PrintStream out) {
+        for (Metric metric : METRICS.values()) {
+            if (metric instanceof Counter) {
+                out.printf(Locale.ROOT, "%-40s %,d%n", metric.name, metric.count());
+            } else {
+                final double scale = metric instanceof Timer ? 1e6 : 1;
+                final String unit = metric instanceof Timer ? " ms" : "";
+                out.printf(Locale.ROOT, "%-40s count %,d  total %.2f%s  p50 %.2f%s  p99 %.2f%s  max %.2f%s%n",
+                        metric.name, metric.count(), metric.total() / scale, unit, metric.percentile(0.5) / scale, unit,
+                        metric.percentile(0.99) / scale, unit, metric.max() / scale, unit);
+            }
+        }
+    }
+
+    private static String toJson() {
+        final StringBuilder json = new StringBuilder("{\n");
+        for (Metric metric : METRICS.values()) {
+            if (json.length() > 2) json.append(",\n");
+            json.append(String.format(Locale.ROOT,
+                    "  \"%s\": {\"kind\": \"%s\", \"count\": %d, \"total\": %d, \"max\": %d, \"p50\": %d, \"p99\": %d}",
+                    metric.name, metric.kind(), metric.count(), metric.total(), metric.max(),
+                    metric.percentile(0.5), metric.percentile(0.99)));
+        }
+        return json.append("\n}\n").toString();
+    }
+}
@@ -1,5 +1,8 @@
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.*;
-import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 public class RecordMatching {
 
@@ -11,110 +14,729 @@ public class RecordMatching {
 
 
         Record(String inputLine) {
-            final Scanner scanner = new Scanner(inputLine);
-            this.firstName = scanner.next();
-            this.lastName = scanner.next();
-            this.email = scanner.next();
-            scanner.close();
+            final int[] bounds = splitLine(inputLine);
+            this.firstName = inputLine.substring(bounds[0], bounds[1]);
+            this.lastName = inputLine.substring(bounds[2], bounds[3]);
+            this.email = inputLine.substring(bounds[4], bounds[5]);
         }
 
-        boolean matches(Record record) {
-            return emailMatches(record) || nameMatches(record);
+        private Record(String firstName, String lastName, String email) {
+            this.firstName = firstName;
+            this.lastName = lastName;
+            this.email = email;
         }
 
-        private boolean nameMatches(Record record) {
-            return this.firstName.equalsIgnoreCase(record.firstName) && this.lastName.equalsIgnoreCase(record.lastName);
+        String emailKey() {
+            return foldCase(this.email);
         }
 
-        private boolean emailMatches(Record record) {
-            return this.email.equalsIgnoreCase(record.email);
+        String nameKey() {
+            // names are single tokens, so a space cannot occur in either part
+            return foldCase(this.firstName) + " " + foldCase(this.lastName);
         }
 
         @Override
         public String toString() {
             return String.format("%s %s %s", this.email, this.lastName, this.firstName);
         }
+    }
 
-        @Override
-        public boolean equals(Object obj) {
-            boolean result = this == obj;
-            if (!result) {
-                if (obj == null || this.getClass() != obj.getClass()) {
-                    result = false;
+    private static final int FIELDS_PER_LINE = 3;
+    private static final Metrics.Timer READ_TIME = Metrics.timer("records.read");
+    private static final Metrics.Timer MATCH_TIME = Metrics.timer("records.match");
+    private static final Metrics.Timer PRINT_TIME = Metrics.timer("records.print");
+    private static final Metrics.Timer EXTERNAL_TIME = Metrics.timer("records.external");
+    private static final Metrics.Counter KEY_LOOKUPS = Metrics.counter("records.key_lookups");
+    private static final Metrics.Counter KEY_COMPARISONS = Metrics.counter("records.key_comparisons");
+    private static final Metrics.Histogram GROUP_SIZE = Metrics.histogram("records.group_size");
+
+    /**
+     * Returns the start and end of the first name, last name and email tokens of {@code line}, which are separated
+     * by whitespace, found in a single pass over it.
+     */
+    private static int[] splitLine(CharSequence line) {
+        final int[] bounds = new int[2 * FIELDS_PER_LINE];
+        int i = 0;
+        for (int field = 0; field < FIELDS_PER_LINE; field++) {
+            while (i < line.length() && Character.isWhitespace(line.charAt(i))) i++;
+            if (i == line.length()) {
+                throw new NoSuchElementException("expected first name, last name and email in: " + line);
+            }
+            bounds[2 * field] = i;
+            while (i < line.length() && !Character.isWhitespace(line.charAt(i))) i++;
+            bounds[2 * field + 1] = i;
+        }
+        return bounds;
+    }
+
+    /**
+     * Maps {@code s} to a form that is equal for two strings exactly when they are equal ignoring case, by folding
+     * each character the same way {@link String#equalsIgnoreCase} compares them.
+     */
+    private static String foldCase(String s) {
+        final StringBuilder folded = new StringBuilder(s.length());
+        s.codePoints().forEach(codePoint -> folded.appendCodePoint(foldCase(codePoint)));
+        return folded.toString();
+    }
+
+    private static int foldCase(int codePoint) {
+        return Character.toLowerCase(Character.toUpperCase(codePoint));
+    }
+
+    /**
+     * Records stored column by column. The characters of every field of every record live in one shared array, and
+     * each record has the start and end there of its first name, last name and email as read, of its case-folded
+     * email and name keys, and of its lower-cased email for sorting. The hashes of both keys are computed once, as
+     * the record is added, so matching and sorting never build strings.
+     */
+    private static class RecordTable {
+        static final int FIRST_NAME = 0;
+        static final int LAST_NAME = 1;
+        static final int EMAIL = 2;
+        static final int EMAIL_KEY = 3;
+        static final int NAME_KEY = 4;
+        static final int SORT_KEY = 5;
+        private static final int NUM_COLUMNS = 6;
+
+        private char[] text;
+        private int textLength;
+        private int[] bounds;
+        private int[] emailKeyHashes;
+        private int[] nameKeyHashes;
+        int size;
+
+        private RecordTable() {
+            this.text = new char[1 << 12];
+            this.textLength = 0;
+            this.bounds = new int[2 * NUM_COLUMNS * 64];
+            this.emailKeyHashes = new int[64];
+            this.nameKeyHashes = new int[64];
+            this.size = 0;
+        }
+
+        int start(int record, int column) {
+            return this.bounds[2 * (NUM_COLUMNS * record + column)];
+        }
+
+        int end(int record, int column) {
+            return this.bounds[2 * (NUM_COLUMNS * record + column) + 1];
+        }
+
+        int hash(int record, int key) {
+            return key == EMAIL_KEY ? this.emailKeyHashes[record] : this.nameKeyHashes[record];
+        }
+
+        void add(CharSequence line) {
+            final int[] tokens = splitLine(line);
+            if (this.size == this.emailKeyHashes.length) {
+                this.bounds = Arrays.copyOf(this.bounds, 2 * this.bounds.length);
+                this.emailKeyHashes = Arrays.copyOf(this.emailKeyHashes, 2 * this.size);
+                this.nameKeyHashes = Arrays.copyOf(this.nameKeyHashes, 2 * this.size);
+            }
+            final int record = this.size++;
+            for (int column = FIRST_NAME; column <= EMAIL; column++) {
+                this.beginColumn(record, column);
+                for (int i = tokens[2 * column]; i < tokens[2 * column + 1]; i++) {
+                    this.append(line.charAt(i));
+                }
+                this.endColumn(record, column);
+            }
+            this.beginColumn(record, EMAIL_KEY);
+            this.appendFolded(line, tokens[2 * EMAIL], tokens[2 * EMAIL + 1]);
+            this.endColumn(record, EMAIL_KEY);
+            // names are single tokens, so a space cannot occur in either part
+            this.beginColumn(record, NAME_KEY);
+            this.appendFolded(line, tokens[2 * FIRST_NAME], tokens[2 * FIRST_NAME + 1]);
+            this.append(' ');
+            this.appendFolded(line, tokens[2 * LAST_NAME], tokens[2 * LAST_NAME + 1]);
+            this.endColumn(record, NAME_KEY);
+            this.beginColumn(record, SORT_KEY);
+            this.appendLowerCase(line, tokens[2 * EMAIL], tokens[2 * EMAIL + 1]);
+            this.endColumn(record, SORT_KEY);
+            this.emailKeyHashes[record] = this.hashOf(record, EMAIL_KEY);
+            this.nameKeyHashes[record] = this.hashOf(record, NAME_KEY);
+        }
+
+        private void beginColumn(int record, int column) {
+            this.bounds[2 * (NUM_COLUMNS * record + column)] = this.textLength;
+        }
+
+        private void endColumn(int record, int column) {
+            this.bounds[2 * (NUM_COLUMNS * record + column) + 1] = this.textLength;
+        }
+
+        private void append(char c) {
+            if (this.textLength == this.text.length) {
+                this.text = Arrays.copyOf(this.text, 2 * this.textLength);
+            }
+            this.text[this.textLength++] = c;
+        }
+
+        private void appendFolded(CharSequence s, int from, int to) {
+            for (int i = from; i < to; ) {
+                final int codePoint = Character.codePointAt(s, i);
+                i += Character.charCount(codePoint);
+                final int folded = foldCase(codePoint);
+                if (Character.isBmpCodePoint(folded)) {
+                    this.append((char) folded);
+                } else {
+                    this.append(Character.highSurrogate(folded));
+                    this.append(Character.lowSurrogate(folded));
+                }
+            }
+        }
+
+        /**
+         * Appends the characters {@link String#toLowerCase()} gives for the range, without a string for plain ASCII.
+         */
+        private void appendLowerCase(CharSequence s, int from, int to) {
+            boolean ascii = true;
+            for (int i = from; i < to && ascii; i++) {
+                ascii = s.charAt(i) < 0x80;
+            }
+            if (ascii) {
+                for (int i = from; i < to; i++) {
+                    final char c = s.charAt(i);
+                    this.append(c >= 'A' && c <= 'Z' ? (char) (c + ('a' - 'A')) : c);
+                }
+            } else {
+                final String lowerCase = s.subSequence(from, to).toString().toLowerCase();
+                for (int i = 0; i < lowerCase.length(); i++) {
+                    this.append(lowerCase.charAt(i));
+                }
+            }
+        }
+
+        private int hashOf(int record, int column) {
+            int hash = 0;
+            for (int i = this.start(record, column); i < this.end(record, column); i++) {
+                hash = 31 * hash + this.text[i];
+            }
+            return hash;
+        }
+
+        boolean sameKey(int record, int key, RecordTable other, int otherRecord) {
+            KEY_COMPARISONS.increment();
+            return Arrays.equals(this.text, this.start(record, key), this.end(record, key),
+                    other.text, other.start(otherRecord, key), other.end(otherRecord, key));
+        }
+
+        /**
+         * Returns the records ordered by their lower-cased emails, keeping input order among equal emails.
+         */
+        int[] sortedByEmail() {
+            final int[] records = IntStream.range(0, this.size).toArray();
+            this.mergeSort(records, new int[this.size], 0, this.size);
+            return records;
+        }
+
+        private void mergeSort(int[] records, int[] scratch, int from, int to) {
+            if (to - from < 2) return;
+            final int mid = (from + to) >>> 1;
+            this.mergeSort(records, scratch, from, mid);
+            this.mergeSort(records, scratch, mid, to);
+            if (this.compareEmails(records[mid - 1], records[mid]) <= 0) return;
+            System.arraycopy(records, from, scratch, from, to - from);
+            int left = from;
+            int right = mid;
+            for (int i = from; i < to; i++) {
+                if (right == to || (left < mid && this.compareEmails(scratch[left], scratch[right]) <= 0)) {
+                    records[i] = scratch[left++];
                 } else {
-                    final Record other = (Record) obj;
-                    return this.matches(other);
+                    records[i] = scratch[right++];
                 }
             }
-            return result;
+        }
+
+        private int compareEmails(int a, int b) {
+            return Arrays.compare(this.text, this.start(a, SORT_KEY), this.end(a, SORT_KEY),
+                    this.text, this.start(b, SORT_KEY), this.end(b, SORT_KEY));
+        }
+
+        void appendRecord(int record, StringBuilder out) {
+            this.appendColumn(record, EMAIL, out);
+            this.appendColumn(record, LAST_NAME, out.append(' '));
+            this.appendColumn(record, FIRST_NAME, out.append(' '));
+        }
+
+        private void appendColumn(int record, int column, StringBuilder out) {
+            out.append(this.text, this.start(record, column), this.end(record, column) - this.start(record, column));
         }
     }
 
-    private static class IntPair {
-        final int i;
-        final int j;
+    /**
+     * An open-addressing hash set of some records of one table, keyed by one of their case-folded keys and probed
+     * with the hashes the tables already hold.
+     */
+    private static class KeyIndex {
+        private final RecordTable table;
+        private final int key;
+        private final int[] slots;
+        private final int mask;
+
+        private KeyIndex(RecordTable table, int key, int[] records) {
+            this.table = table;
+            this.key = key;
+            final int capacity = Integer.highestOneBit(Math.max(2 * records.length, 2) - 1) << 1;
+            // slots hold record + 1 so that 0 can mean empty
+            this.slots = new int[capacity];
+            this.mask = capacity - 1;
+            for (int record : records) {
+                int slot = spread(table.hash(record, key)) & this.mask;
+                while (this.slots[slot] != 0) {
+                    if (table.sameKey(this.slots[slot] - 1, key, table, record)) break;
+                    slot = (slot + 1) & this.mask;
+                }
+                if (this.slots[slot] == 0) this.slots[slot] = record + 1;
+            }
+        }
+
+        boolean contains(RecordTable other, int record) {
+            KEY_LOOKUPS.increment();
+            int slot = spread(other.hash(record, this.key)) & this.mask;
+            while (this.slots[slot] != 0) {
+                if (this.table.sameKey(this.slots[slot] - 1, this.key, other, record)) return true;
+                slot = (slot + 1) & this.mask;
+            }
+            return false;
+        }
 
-        private IntPair(int i, int j) {
-            this.i = i;
-            this.j = j;
+        private static int spread(int hash) {
+            return hash ^ (hash >>> 16);
         }
     }
 
-    public static void main(String[] args) {
-        final List<Record> internalRecords = new ArrayList<>();
-        final List<Record> outsideRecords = new ArrayList<>();
-        scanInput(internalRecords, outsideRecords);
-        removePairs(internalRecords, outsideRecords);
-        printResults(internalRecords, outsideRecords);
+    private static final int DEFAULT_RUN_SIZE = 1 << 20;
+    private static final int INTERNAL = 0;
+    private static final int OUTSIDE = 1;
+
+    /**
+     * A record tagged with the side it came from, its position on that side, and the key it is being sorted by.
+     */
+    private static class KeyedRecord {
+        static final Comparator<KeyedRecord> ORDER = Comparator.<KeyedRecord, String>comparing(keyed -> keyed.key)
+                .thenComparingInt(keyed -> keyed.side)
+                .thenComparingInt(keyed -> keyed.id);
+
+        final String key;
+        final int side;
+        final int id;
+        final Record record;
+
+        private KeyedRecord(String key, int side, int id, Record record) {
+            this.key = key;
+            this.side = side;
+            this.id = id;
+            this.record = record;
+        }
+
+        void write(DataOutputStream out) throws IOException {
+            out.writeBoolean(true);
+            out.writeUTF(this.key);
+            out.writeByte(this.side);
+            out.writeInt(this.id);
+            out.writeUTF(this.record.firstName);
+            out.writeUTF(this.record.lastName);
+            out.writeUTF(this.record.email);
+        }
+
+        static void writeEnd(DataOutputStream out) throws IOException {
+            out.writeBoolean(false);
+        }
+
+        /**
+         * Returns the next record written by {@link #write}, or null once {@link #writeEnd} is reached.
+         */
+        static KeyedRecord read(DataInputStream in) throws IOException {
+            if (!in.readBoolean()) return null;
+            final String key = in.readUTF();
+            final int side = in.readByte();
+            final int id = in.readInt();
+            return new KeyedRecord(key, side, id, new Record(in.readUTF(), in.readUTF(), in.readUTF()));
+        }
     }
 
-    private static void removePairs(List<Record> internalRecords, List<Record> outsideRecords) {
-        final List<Record> matchedRecords = internalRecords.stream()
-                .filter(outsideRecords::contains)
-                .collect(Collectors.toList());
-        internalRecords.removeAll(matchedRecords);
-        outsideRecords.removeAll(matchedRecords);
+    /**
+     * Sorts more records than fit in memory by {@link KeyedRecord#ORDER}. Records are buffered up to the run size,
+     * sorted and spilled to a temporary file, and the runs are then merged, at most {@link #MERGE_WIDTH} at a time,
+     * into one sorted file.
+     */
+    private static class ExternalSorter {
+        private static final int MERGE_WIDTH = 64;
+        private static final int IO_BUFFER_SIZE = 1 << 16;
+
+        private final int runSize;
+        private final List<KeyedRecord> buffer;
+        private final Deque<Path> runs;
+
+        private ExternalSorter(int runSize) {
+            this.runSize = runSize;
+            this.buffer = new ArrayList<>();
+            this.runs = new ArrayDeque<>();
+        }
+
+        void add(KeyedRecord record) throws IOException {
+            this.buffer.add(record);
+            if (this.buffer.size() >= this.runSize) {
+                this.spill();
+            }
+        }
+
+        private void spill() throws IOException {
+            this.buffer.sort(KeyedRecord.ORDER);
+            final Path run = createTempFile();
+            try (DataOutputStream out = openOutput(run)) {
+                for (KeyedRecord record : this.buffer) {
+                    record.write(out);
+                }
+                KeyedRecord.writeEnd(out);
+            }
+            this.runs.addLast(run);
+            this.buffer.clear();
+        }
+
+        /**
+         * Returns a temporary file holding every record added, in order. The caller deletes it.
+         */
+        Path finish() throws IOException {
+            if (!this.buffer.isEmpty() || this.runs.isEmpty()) {
+                this.spill();
+            }
+            while (this.runs.size() > 1) {
+                final List<Path> merging = new ArrayList<>();
+                while (merging.size() < MERGE_WIDTH && !this.runs.isEmpty()) {
+                    merging.add(this.runs.pollFirst());
+                }
+                this.runs.addLast(merge(merging));
+            }
+            return this.runs.pollFirst();
+        }
+
+        private static Path merge(List<Path> runs) throws IOException {
+            final Path merged = createTempFile();
+            final List<DataInputStream> inputs = new ArrayList<>();
+            try (DataOutputStream out = openOutput(merged)) {
+                final PriorityQueue<Map.Entry<KeyedRecord, DataInputStream>> heads = new PriorityQueue<>(Map.Entry.comparingByKey(KeyedRecord.ORDER));
+                for (Path run : runs) {
+                    final DataInputStream in = openInput(run);
+                    inputs.add(in);
+                    final KeyedRecord first = KeyedRecord.read(in);
+                    if (first != null) heads.add(new AbstractMap.SimpleImmutableEntry<>(first, in));
+                }
+                while (!heads.isEmpty()) {
+                    final Map.Entry<KeyedRecord, DataInputStream> head = heads.poll();
+                    head.getKey().write(out);
+                    final KeyedRecord next = KeyedRecord.read(head.getValue());
+                    if (next != null) heads.add(new AbstractMap.SimpleImmutableEntry<>(next, head.getValue()));
+                }
+                KeyedRecord.writeEnd(out);
+            } finally {
+                for (DataInputStream in : inputs) {
+                    in.close();
+                }
+                for (Path run : runs) {
+                    Files.deleteIfExists(run);
+                }
+            }
+            return merged;
+        }
+
+        private static Path createTempFile() throws IOException {
+            final Path file = Files.createTempFile("record-matching", ".run");
+            file.toFile().deleteOnExit();
+            return file;
+        }
+
+        static DataOutputStream openOutput(Path file) throws IOException {
+            return new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file), IO_BUFFER_SIZE));
+        }
+
+        static DataInputStream openInput(Path file) throws IOException {
+            return new DataInputStream(new BufferedInputStream(Files.newInputStream(file), IO_BUFFER_SIZE));
+        }
     }
 
-    private static List<IntPair> findPairsToRemove(List<Record> internalRecords, List<Record> outsideRecords) {
-        final List<IntPair> toRemove = new ArrayList<>();
-        for (int i = 0; i < internalRecords.size(); i++) {
-            Record internalRecord = internalRecords.get(i);
-            final int indexInOutsideRecords = outsideRecords.indexOf(internalRecord);
-            if (indexInOutsideRecords != -1) {
-                toRemove.add(new IntPair(i, indexInOutsideRecords));
+    /**
+     * Reconciles records without holding them in memory, for the same output as {@link #removePairs} and
+     * {@link #printResults}. Every record is sorted out to disk once by email and once by name; records sharing a
+     * key then sit together, so each set of records agreeing on a key is seen at once while streaming the sorted
+     * files back. One pass over both files finds the internal records with an outside record in their group, a second
+     * removes every record grouped with one of those, and the survivors are sorted a third time into output order.
+     * Beyond the sorters' buffers, only a bit per record is kept on the heap.
+     */
+    private static void reconcileExternally(FastReader reader, int runSize, PrintWriter out) throws IOException {
+        final ExternalSorter byEmail = new ExternalSorter(runSize);
+        final ExternalSorter byName = new ExternalSorter(runSize);
+        final int[] numRecords = new int[2];
+        int side = INTERNAL;
+        String line;
+        while ((line = reader.nextLine()) != null) {
+            if (line.isBlank()) {
+                side = OUTSIDE;
+            } else {
+                final Record record = new Record(line);
+                final int id = numRecords[side]++;
+                byEmail.add(new KeyedRecord(record.emailKey(), side, id, record));
+                byName.add(new KeyedRecord(record.nameKey(), side, id, record));
+            }
+        }
+        final Path emailSorted = byEmail.finish();
+        final Path nameSorted = byName.finish();
+        try {
+            final BitSet matched = new BitSet(numRecords[INTERNAL]);
+            forEachGroup(emailSorted, group -> markMatched(group, matched));
+            forEachGroup(nameSorted, group -> markMatched(group, matched));
+            final BitSet[] removed = {new BitSet(numRecords[INTERNAL]), new BitSet(numRecords[OUTSIDE])};
+            forEachGroup(emailSorted, group -> markRemoved(group, matched, removed));
+            forEachGroup(nameSorted, group -> markRemoved(group, matched, removed));
+
+            final ExternalSorter survivors = new ExternalSorter(runSize);
+            forEachGroup(emailSorted, group -> {
+                for (KeyedRecord keyed : group) {
+                    if (!removed[keyed.side].get(keyed.id)) {
+                        // internal records first, each side in the order printResults lists it
+                        final String key = keyed.side + keyed.record.email.toLowerCase();
+                        survivors.add(new KeyedRecord(key, keyed.side, keyed.id, keyed.record));
+                    }
+                }
+            });
+            final Path outputSorted = survivors.finish();
+            try (DataInputStream in = ExternalSorter.openInput(outputSorted)) {
+                boolean anyMismatches = false;
+                KeyedRecord keyed;
+                while ((keyed = KeyedRecord.read(in)) != null) {
+                    out.println((keyed.side == INTERNAL ? "I " : "O ") + keyed.record);
+                    anyMismatches = true;
+                }
+                if (!anyMismatches) {
+                    out.println("No mismatches.");
+                }
+            } finally {
+                Files.deleteIfExists(outputSorted);
             }
+        } finally {
+            Files.deleteIfExists(emailSorted);
+            Files.deleteIfExists(nameSorted);
         }
-        return toRemove;
     }
 
-    private static void printResults(List<Record> internalRecords, List<Record> outsideRecords) {
-        if (internalRecords.isEmpty() && outsideRecords.isEmpty()) {
-            System.out.println("No mismatches.");
-        } else {
-            for (Record internalRecord : internalRecords) {
-                System.out.println("I " + internalRecord);
+    private interface GroupConsumer {
+        void accept(List<KeyedRecord> group) throws IOException;
+    }
+
+    private static void forEachGroup(Path sorted, GroupConsumer consumer) throws IOException {
+        try (DataInputStream in = ExternalSorter.openInput(sorted)) {
+            final List<KeyedRecord> group = new ArrayList<>();
+            KeyedRecord keyed;
+            while ((keyed = KeyedRecord.read(in)) != null) {
+                if (!group.isEmpty() && !group.get(0).key.equals(keyed.key)) {
+                    GROUP_SIZE.record(group.size());
+                    consumer.accept(group);
+                    group.clear();
+                }
+                group.add(keyed);
             }
-            for (Record outsideRecord : outsideRecords) {
-                System.out.println("O " + outsideRecord);
+            if (!group.isEmpty()) {
+                GROUP_SIZE.record(group.size());
+                consumer.accept(group);
             }
         }
     }
 
-    private static void scanInput(List<Record> internalRecords, List<Record> outsideRecords) {
-        List<Record> currentlyInserting = internalRecords;
-        final Scanner scanner = new Scanner(System.in);
-        while (scanner.hasNextLine()) {
-            final String line = scanner.nextLine();
-            if (line.isBlank()) {
+    /**
+     * Marks the internal records of {@code group} as matched if it holds an outside record; since groups are sorted by
+     * side, that is the last one.
+     */
+    private static void markMatched(List<KeyedRecord> group, BitSet matched) {
+        if (group.get(group.size() - 1).side == OUTSIDE) {
+            for (KeyedRecord keyed : group) {
+                if (keyed.side == INTERNAL) matched.set(keyed.id);
+            }
+        }
+    }
+
+    private static void markRemoved(List<KeyedRecord> group, BitSet matched, BitSet[] removed) {
+        boolean hasMatched = false;
+        for (KeyedRecord keyed : group) {
+            hasMatched |= keyed.side == INTERNAL && matched.get(keyed.id);
+        }
+        if (hasMatched) {
+            for (KeyedRecord keyed : group) {
+                removed[keyed.side].set(keyed.id);
+            }
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        run(args, System.in, System.out);
+    }
+
+    public static void run(String[] args, InputStream in, OutputStream out) throws IOException {
+        int runSize = 0;
+        int numShards = 0;
+        for (String arg : args) {
+            if (arg.equals("--parallel")) {
+                numShards = 4 * Runtime.getRuntime().availableProcessors();
+            } else if (arg.startsWith("--parallel=")) {
+                numShards = Integer.parseInt(arg.substring("--parallel=".length()));
+            } else if (arg.equals("--external")) {
+                runSize = DEFAULT_RUN_SIZE;
+            } else if (arg.startsWith("--external=")) {
+                runSize = Integer.parseInt(arg.substring("--external=".length()));
+            }
+        }
+        final FastReader reader = new FastReader(in);
+        final PrintWriter writer = new PrintWriter(new BufferedWriter(new OutputStreamWriter(out)));
+        if (runSize > 0) {
+            final long start = EXTERNAL_TIME.start();
+            reconcileExternally(reader, runSize, writer);
+            writer.flush();
+            EXTERNAL_TIME.stop(start);
+            return;
+        }
+        final RecordTable internalRecords = new RecordTable();
+        final RecordTable outsideRecords = new RecordTable();
+        final long readStart = READ_TIME.start();
+        scanInput(reader, internalRecords, outsideRecords);
+        READ_TIME.stop(readStart);
+        final long matchStart = MATCH_TIME.start();
+        final boolean[][] removed = numShards > 0
+                ? removePairsInParallel(internalRecords, outsideRecords, numShards)
+                : removePairs(internalRecords, outsideRecords);
+        MATCH_TIME.stop(matchStart);
+        final long printStart = PRINT_TIME.start();
+        printResults(internalRecords, outsideRecords, removed, writer);
+        writer.flush();
+        PRINT_TIME.stop(printStart);
+    }
+
+    /**
+     * Finds the internal records matching some outside record, then flags every record on either side that matches
+     * one of those, returning the flags of the internal records and then of the outside ones.
+     */
+    private static boolean[][] removePairs(RecordTable internalRecords, RecordTable outsideRecords) {
+        final int[] allOutside = IntStream.range(0, outsideRecords.size).toArray();
+        final KeyIndex outsideEmails = new KeyIndex(outsideRecords, RecordTable.EMAIL_KEY, allOutside);
+        final KeyIndex outsideNames = new KeyIndex(outsideRecords, RecordTable.NAME_KEY, allOutside);
+        final int[] matched = IntStream.range(0, internalRecords.size)
+                .filter(i -> outsideEmails.contains(internalRecords, i) || outsideNames.contains(internalRecords, i))
+                .toArray();
+        final KeyIndex matchedEmails = new KeyIndex(internalRecords, RecordTable.EMAIL_KEY, matched);
+        final KeyIndex matchedNames = new KeyIndex(internalRecords, RecordTable.NAME_KEY, matched);
+        final RecordTable[] tables = {internalRecords, outsideRecords};
+        final boolean[][] removed = new boolean[tables.length][];
+        for (int side = INTERNAL; side <= OUTSIDE; side++) {
+            final RecordTable table = tables[side];
+            removed[side] = new boolean[table.size];
+            for (int i = 0; i < table.size; i++) {
+                removed[side][i] = matchedEmails.contains(table, i) || matchedNames.contains(table, i);
+            }
+        }
+        return removed;
+    }
+
+    /**
+     * Does the same as {@link #removePairs} with the work split across the common fork-join pool. Records are
+     * hash-partitioned into {@code numShards} shards by email and, separately, by name, so records that can match on
+     * a key always land in the same shard for that key. Every shard is first searched for internal records with an
+     * outside match, then for records on either side sharing a key with one of those, each step running all the
+     * shards at once.
+     */
+    private static boolean[][] removePairsInParallel(RecordTable internalRecords, RecordTable outsideRecords, int numShards) {
+        final RecordTable[] tables = {internalRecords, outsideRecords};
+        final int[] keys = {RecordTable.EMAIL_KEY, RecordTable.NAME_KEY};
+        final int[][][][] shards = new int[keys.length][tables.length][][];
+        for (int k = 0; k < keys.length; k++) {
+            for (int side = INTERNAL; side <= OUTSIDE; side++) {
+                shards[k][side] = shards(tables[side], keys[k], numShards);
+            }
+        }
+
+        final boolean[] matched = new boolean[internalRecords.size];
+        IntStream.range(0, keys.length * numShards).parallel().forEach(task -> {
+            final int k = task / numShards;
+            final int shard = task % numShards;
+            final KeyIndex outsideKeys = new KeyIndex(outsideRecords, keys[k], shards[k][OUTSIDE][shard]);
+            for (int i : shards[k][INTERNAL][shard]) {
+                if (outsideKeys.contains(internalRecords, i)) matched[i] = true;
+            }
+        });
+
+        final boolean[][] removed = {new boolean[internalRecords.size], new boolean[outsideRecords.size]};
+        IntStream.range(0, keys.length * numShards).parallel().forEach(task -> {
+            final int k = task / numShards;
+            final int shard = task % numShards;
+            final int[] matchedInShard = Arrays.stream(shards[k][INTERNAL][shard]).filter(i -> matched[i]).toArray();
+            final KeyIndex matchedKeys = new KeyIndex(internalRecords, keys[k], matchedInShard);
+            for (int side = INTERNAL; side <= OUTSIDE; side++) {
+                for (int i : shards[k][side][shard]) {
+                    if (matchedKeys.contains(tables[side], i)) removed[side][i] = true;
+                }
+            }
+        });
+        return removed;
+    }
+
+    /**
+     * Returns, for each shard, the ascending records of {@code table} whose {@code key} hashes to it.
+     */
+    private static int[][] shards(RecordTable table, int key, int numShards) {
+        final int[] shardOf = new int[table.size];
+        final int[] shardSizes = new int[numShards];
+        for (int i = 0; i < table.size; i++) {
+            shardOf[i] = Math.floorMod(table.hash(i, key), numShards);
+            shardSizes[shardOf[i]]++;
+        }
+        final int[][] shards = new int[numShards][];
+        for (int shard = 0; shard < numShards; shard++) {
+            shards[shard] = new int[shardSizes[shard]];
+        }
+        final int[] fill = new int[numShards];
+        for (int i = 0; i < table.size; i++) {
+            shards[shardOf[i]][fill[shardOf[i]]++] = i;
+        }
+        return shards;
+    }
+
+    private static void printResults(RecordTable internalRecords, RecordTable outsideRecords, boolean[][] removed,
+                                     PrintWriter writer) {
+        final RecordTable[] tables = {internalRecords, outsideRecords};
+        final StringBuilder out = new StringBuilder();
+        for (int side = INTERNAL; side <= OUTSIDE; side++) {
+            for (int record : tables[side].sortedByEmail()) {
+                if (removed[side][record]) continue;
+                out.append(side == INTERNAL ? "I " : "O ");
+                tables[side].appendRecord(record, out);
+                out.append(System.lineSeparator());
+            }
+        }
+        if (out.length() == 0) {
+            writer.println("No mismatches.");
+        } else {
+            writer.print(out);
+        }
+    }
+
+    private static void scanInput(FastReader reader, RecordTable internalRecords, RecordTable outsideRecords) {
+        RecordTable currentlyInserting = internalRecords;
+        final StringBuilder line = new StringBuilder();
+        while (reader.readLine(line)) {
+            if (isBlank(line)) {
                 currentlyInserting = outsideRecords;
             } else {
-                currentlyInserting.add(new Record(line));
+                currentlyInserting.add(line);
             }
+            line.setLength(0);
+        }
+    }
+
+    private static boolean isBlank(CharSequence line) {
+        for (int i = 0; i < line.length(); ) {
+            final int codePoint = Character.codePointAt(line, i);
+            if (!Character.isWhitespace(codePoint)) return false;
+            i += Character.charCount(codePoint);
         }
-        scanner.close();
-        internalRecords.sort(Comparator.comparing(record -> record.email.toLowerCase()));
-        outsideRecords.sort(Comparator.comparing(record -> record.email.toLowerCase()));
+        return true;
     }
 
 }
@@ -1,113 +1,394 @@
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
 import java.util.*;
+import java.util.stream.IntStream;
 
 public class RideHailing {
 
+    private static final Metrics.Timer READ_TIME = Metrics.timer("ridehailing.read");
+    private static final Metrics.Timer DIJKSTRA_TIME = Metrics.timer("ridehailing.dijkstra");
+    private static final Metrics.Timer MATCHING_TIME = Metrics.timer("ridehailing.matching");
+    private static final Metrics.Timer DISPATCH_TIME = Metrics.timer("ridehailing.dispatch");
+    private static final Metrics.Counter DISTANCE_CACHE_HITS = Metrics.counter("ridehailing.distance_cache.hits");
+    private static final Metrics.Counter DISTANCE_CACHE_MISSES = Metrics.counter("ridehailing.distance_cache.misses");
+
+    /**
+     * A directed graph over the nodes {@code 1} to {@code numNodes}. Edges are collected as they are added and packed
+     * into compressed sparse rows the first time a shortest path is asked for: the edges leaving {@code u} are
+     * {@code targets[offsets[u]]} up to {@code targets[offsets[u + 1]]}, sorted by target, with matching
+     * {@code weights}. As with a set of adjacent nodes, only the first edge added between two nodes counts.
+     */
     private static class Graph {
 
-        private final Map<Integer, Set<AdjacencyNode>> adjacencyList;
-        private final Map<Integer, Map<Integer, Integer>> shortestPaths;
+        private final int numNodes;
+        private int[] edgeSources;
+        private int[] edgeTargets;
+        private int[] edgeWeights;
+        private int numEdges;
+        private int[] offsets;
+        private int[] targets;
+        private int[] weights;
+        private int[] reverseOffsets;
+        private int[] reverseTargets;
+        private int[] reverseWeights;
+        private int[] searchDistances;
+        private int[] touched;
+        private LongHeap searchHeap;
 
-        private Graph() {
-            adjacencyList = new HashMap<>();
-            shortestPaths = new HashMap<>();
+        private Graph(int numNodes) {
+            this.numNodes = numNodes;
+            this.edgeSources = new int[16];
+            this.edgeTargets = new int[16];
+            this.edgeWeights = new int[16];
+            this.numEdges = 0;
         }
 
-        private static class AdjacencyNode implements Comparable<AdjacencyNode> {
-            final int destination;
-            final int weight;
-
-            private AdjacencyNode(int destination, int weight) {
-                this.destination = destination;
-                this.weight = weight;
+        public void displayGraph() {
+            this.compile();
+            for (int source = 1; source <= this.numNodes; source++) {
+                for (int e = this.offsets[source]; e < this.offsets[source + 1]; e++) {
+                    System.out.printf("%d -%d-> %d \n", source, this.weights[e], this.targets[e]);
+                }
             }
+        }
 
-            @Override
-            public boolean equals(Object o) {
-                if (this == o) return true;
-                if (o == null || getClass() != o.getClass()) return false;
-                AdjacencyNode that = (AdjacencyNode) o;
-                return destination == that.destination;
-            }
+        private boolean contains(int node) {
+            return node >= 1 && node <= this.numNodes;
+        }
 
-            @Override
-            public int hashCode() {
-                return Objects.hash(destination);
+        public void addEdge(int source, int destination, int weight) {
+            if (this.contains(source) && this.contains(destination)) {
+                if (this.numEdges == this.edgeSources.length) {
+                    this.edgeSources = Arrays.copyOf(this.edgeSources, this.numEdges * 2);
+                    this.edgeTargets = Arrays.copyOf(this.edgeTargets, this.numEdges * 2);
+                    this.edgeWeights = Arrays.copyOf(this.edgeWeights, this.numEdges * 2);
+                }
+                this.edgeSources[this.numEdges] = source;
+                this.edgeTargets[this.numEdges] = destination;
+                this.edgeWeights[this.numEdges] = weight;
+                this.numEdges++;
+                this.offsets = null;
+                this.reverseOffsets = null;
             }
+        }
 
-            @Override
-            public int compareTo(AdjacencyNode o) {
-                return Integer.compare(this.destination, o.destination);
+        private void compile() {
+            if (this.offsets != null) return;
+            // bucket the edges by source, then order each bucket by target and insertion order
+            final int[] bucketStarts = new int[this.numNodes + 2];
+            for (int e = 0; e < this.numEdges; e++) {
+                bucketStarts[this.edgeSources[e] + 1]++;
+            }
+            for (int u = 1; u <= this.numNodes + 1; u++) {
+                bucketStarts[u] += bucketStarts[u - 1];
             }
+            final long[] bucketed = new long[this.numEdges];
+            final int[] fill = Arrays.copyOf(bucketStarts, bucketStarts.length);
+            for (int e = 0; e < this.numEdges; e++) {
+                bucketed[fill[this.edgeSources[e]]++] = ((long) this.edgeTargets[e] << 32) | e;
+            }
+            final int[] offsets = new int[this.numNodes + 2];
+            final int[] targets = new int[this.numEdges];
+            final int[] weights = new int[this.numEdges];
+            int numKept = 0;
+            for (int u = 0; u <= this.numNodes; u++) {
+                offsets[u] = numKept;
+                Arrays.sort(bucketed, bucketStarts[u], bucketStarts[u + 1]);
+                for (int i = bucketStarts[u]; i < bucketStarts[u + 1]; i++) {
+                    final int target = (int) (bucketed[i] >>> 32);
+                    if (numKept == offsets[u] || targets[numKept - 1] != target) {
+                        targets[numKept] = target;
+                        weights[numKept] = this.edgeWeights[(int) bucketed[i]];
+                        numKept++;
+                    }
+                }
+            }
+            offsets[this.numNodes + 1] = numKept;
+            this.offsets = offsets;
+            this.targets = targets;
+            this.weights = weights;
         }
 
-        public void displayGraph() {
-            this.adjacencyList.entrySet()
-                    .stream()
-                    .sorted(Map.Entry.comparingByKey())
-                    .forEach(integerSetEntry -> {
-                        final int source = integerSetEntry.getKey();
-                        integerSetEntry.getValue().forEach(adjacencyNode -> {
-                            System.out.printf("%d -%d-> %d \n", source, adjacencyNode.weight, adjacencyNode.destination);
-                        });
-                    });
+        /**
+         * Builds the reverse of the compiled graph in the same layout, for distances towards a node.
+         */
+        private void compileReverse() {
+            if (this.reverseOffsets != null) return;
+            this.compile();
+            final int[] reverseOffsets = new int[this.numNodes + 2];
+            for (int e = 0; e < this.offsets[this.numNodes + 1]; e++) {
+                reverseOffsets[this.targets[e] + 1]++;
+            }
+            for (int v = 1; v <= this.numNodes + 1; v++) {
+                reverseOffsets[v] += reverseOffsets[v - 1];
+            }
+            final int[] fill = Arrays.copyOf(reverseOffsets, reverseOffsets.length);
+            final int[] reverseTargets = new int[this.targets.length];
+            final int[] reverseWeights = new int[this.targets.length];
+            for (int u = 0; u <= this.numNodes; u++) {
+                for (int e = this.offsets[u]; e < this.offsets[u + 1]; e++) {
+                    final int slot = fill[this.targets[e]]++;
+                    reverseTargets[slot] = u;
+                    reverseWeights[slot] = this.weights[e];
+                }
+            }
+            this.reverseOffsets = reverseOffsets;
+            this.reverseTargets = reverseTargets;
+            this.reverseWeights = reverseWeights;
         }
 
-        public void add(int node) {
-            if (!this.adjacencyList.containsKey(node)) {
-                this.adjacencyList.put(node, new TreeSet<>());
+        /**
+         * Settles nodes outward from {@code source} in order of distance, no further than {@code limit}, until
+         * {@code visitor} accepts one, and returns {@code distance << 32 | node} for that node or -1 if none is
+         * accepted. With {@code reverse}, the distances are towards {@code source}. Only the entries of the scratch
+         * arrays a search touches are reset after it, so a short search costs no more than the nodes it reaches.
+         */
+        public long search(int source, long limit, boolean reverse, Visitor visitor) {
+            final long start = DIJKSTRA_TIME.start();
+            if (reverse) {
+                this.compileReverse();
+            } else {
+                this.compile();
+            }
+            final int[] offsets = reverse ? this.reverseOffsets : this.offsets;
+            final int[] targets = reverse ? this.reverseTargets : this.targets;
+            final int[] weights = reverse ? this.reverseWeights : this.weights;
+            if (this.searchDistances == null) {
+                this.searchDistances = new int[this.numNodes + 1];
+                Arrays.fill(this.searchDistances, Integer.MAX_VALUE);
+                this.touched = new int[16];
+                this.searchHeap = new LongHeap(16);
             }
+            final int[] distances = this.searchDistances;
+            final LongHeap heap = this.searchHeap;
+            distances[source] = 0;
+            this.touched[0] = source;
+            int numTouched = 1;
+            heap.clear();
+            heap.push(source);
+            long found = -1;
+            while (!heap.isEmpty()) {
+                final long top = heap.pop();
+                final int u = (int) top;
+                final int distance = (int) (top >>> 32);
+                if (distance == distances[u]) {
+                    if (visitor.accept(u, distance)) {
+                        found = top;
+                        break;
+                    }
+                    for (int e = offsets[u]; e < offsets[u + 1]; e++) {
+                        final int v = targets[e];
+                        final int possibleDistance = distance + weights[e];
+                        if (possibleDistance <= limit && possibleDistance < distances[v]) {
+                            if (distances[v] == Integer.MAX_VALUE) {
+                                if (numTouched == this.touched.length) {
+                                    this.touched = Arrays.copyOf(this.touched, numTouched * 2);
+                                }
+                                this.touched[numTouched++] = v;
+                            }
+                            distances[v] = possibleDistance;
+                            heap.push(((long) possibleDistance << 32) | v);
+                        }
+                    }
+                }
+            }
+            for (int i = 0; i < numTouched; i++) {
+                distances[this.touched[i]] = Integer.MAX_VALUE;
+            }
+            DIJKSTRA_TIME.stop(start);
+            return found;
         }
 
-        public void addEdge(int source, int destination, int weight) {
-            if (this.adjacencyList.containsKey(source)) {
-                if(this.adjacencyList.get(source).add(new AdjacencyNode(destination, weight))) {
-                    this.shortestPaths.clear();
+        /**
+         * Runs Dijkstra's algorithm from each distinct endpoint of {@code trips} across the common fork-join pool,
+         * keeping only the distances the matching reads: first from the pickup points for the trip lengths, then from
+         * the drop-off points to the pickup points. Every distance is only compared with the start of a trip, so each
+         * search stops at the last start time. Every repeated endpoint counts as a distance cache hit, every distinct
+         * one as a miss.
+         */
+        public DistanceMatrix precompute(List<Trip> trips) {
+            this.compile();
+            final int[] pickups = trips.stream().mapToInt(trip -> trip.source).distinct().sorted().toArray();
+            final int[] dropOffs = trips.stream().mapToInt(trip -> trip.destination).distinct().sorted().toArray();
+            DISTANCE_CACHE_HITS.add(2L * trips.size() - pickups.length - dropOffs.length);
+            DISTANCE_CACHE_MISSES.add(pickups.length + dropOffs.length);
+            final long lastTime = trips.stream().mapToLong(trip -> trip.time).max().orElse(0);
+            final DistanceMatrix distances = new DistanceMatrix(this.numNodes, pickups, dropOffs, trips.size());
+
+            // the trips starting at each node, as compressed sparse rows
+            final int[] tripStarts = new int[this.numNodes + 2];
+            for (Trip trip : trips) {
+                tripStarts[trip.source + 1]++;
+            }
+            for (int u = 1; u <= this.numNodes + 1; u++) {
+                tripStarts[u] += tripStarts[u - 1];
+            }
+            final int[] fill = Arrays.copyOf(tripStarts, tripStarts.length);
+            final int[] tripsFrom = new int[trips.size()];
+            for (int t = 0; t < trips.size(); t++) {
+                tripsFrom[fill[trips.get(t).source]++] = t;
+            }
+            Arrays.stream(pickups).parallel().forEach(pickup -> {
+                long firstTime = Long.MAX_VALUE;
+                for (int t = tripStarts[pickup]; t < tripStarts[pickup + 1]; t++) {
+                    firstTime = Math.min(firstTime, trips.get(tripsFrom[t]).time);
+                }
+                final int[] fromPickup = this.doDijkstras(pickup, lastTime - firstTime);
+                for (int t = tripStarts[pickup]; t < tripStarts[pickup + 1]; t++) {
+                    distances.tripLengths[tripsFrom[t]] = fromPickup[trips.get(tripsFrom[t]).destination];
+                }
+            });
+
+            final long[] firstDropOffs = new long[dropOffs.length];
+            Arrays.fill(firstDropOffs, Long.MAX_VALUE);
+            for (int t = 0; t < trips.size(); t++) {
+                final int length = distances.tripLengths[t];
+                if (length != Integer.MAX_VALUE) {
+                    final int row = distances.rowOf[trips.get(t).destination];
+                    firstDropOffs[row] = Math.min(firstDropOffs[row], (long) trips.get(t).time + length);
                 }
             }
+            IntStream.range(0, dropOffs.length).parallel().forEach(row -> {
+                final long limit = firstDropOffs[row] == Long.MAX_VALUE ? -1 : lastTime - firstDropOffs[row];
+                final int[] fromDropOff = this.doDijkstras(dropOffs[row], limit);
+                final int[] projected = new int[pickups.length];
+                for (int c = 0; c < pickups.length; c++) {
+                    projected[c] = fromDropOff[pickups[c]];
+                }
+                distances.rows[row] = projected;
+            });
+            return distances;
         }
 
-        public int shortestPathLength(int source, int destination) {
-            if (!this.shortestPaths.containsKey(source) || !this.shortestPaths.get(source).containsKey(destination)) {
-                this.doDijkstras(source);
-            }
-            return this.shortestPaths.get(source).get(destination);
+        /**
+         * Returns the distance from {@code source} to every node no further than {@code limit}, indexed by node, with
+         * {@link Integer#MAX_VALUE} for the rest. Candidates are kept in a binary heap of {@code distance << 32 | node}
+         * longs; a node may be pushed more than once and its stale entries are skipped when popped.
+         */
+        private int[] doDijkstras(int source, long limit) {
+            this.compile();
+            return doDijkstras(source, limit, this.numNodes, this.offsets, this.targets, this.weights);
         }
 
-        private void doDijkstras(int source) {
-            final TreeSet<Integer> sptSet = new TreeSet<>();
-            final Map<Integer, Integer> distancesFromSource = new HashMap<>();
-            for (int destination : this.adjacencyList.keySet()) {
-                distancesFromSource.put(destination, destination == source ? 0 : Integer.MAX_VALUE);
-            }
-            while (sptSet.size() != this.adjacencyList.size()) {
-                int u = getClosestNotInSptSet(sptSet, distancesFromSource);
-                sptSet.add(u);
-                final Set<AdjacencyNode> adjacentNodes = this.adjacencyList.get(u);
-                for (AdjacencyNode adjacentNode : adjacentNodes) {
-                    final int v = adjacentNode.destination;
-                    int possibleDistance = distancesFromSource.get(u) != Integer.MAX_VALUE ? distancesFromSource.get(u) + adjacentNode.weight : Integer.MAX_VALUE;
-                    if (possibleDistance < distancesFromSource.get(v)) {
-                        distancesFromSource.put(v, possibleDistance);
+        private static int[] doDijkstras(int source, long limit, int numNodes, int[] offsets, int[] targets, int[] weights) {
+            final long start = DIJKSTRA_TIME.start();
+            final int[] distances = new int[numNodes + 1];
+            Arrays.fill(distances, Integer.MAX_VALUE);
+            distances[source] = 0;
+            final LongHeap heap = new LongHeap(numNodes + 1);
+            heap.push(source);
+            while (!heap.isEmpty()) {
+                final long top = heap.pop();
+                final int u = (int) top;
+                final int distance = (int) (top >>> 32);
+                if (distance == distances[u]) {
+                    for (int e = offsets[u]; e < offsets[u + 1]; e++) {
+                        final int v = targets[e];
+                        final int possibleDistance = distance + weights[e];
+                        if (possibleDistance <= limit && possibleDistance < distances[v]) {
+                            distances[v] = possibleDistance;
+                            heap.push(((long) possibleDistance << 32) | v);
+                        }
                     }
                 }
             }
-            this.shortestPaths.put(source, distancesFromSource);
+            DIJKSTRA_TIME.stop(start);
+            return distances;
         }
 
-        private int getClosestNotInSptSet(TreeSet<Integer> sptSet, Map<Integer, Integer> distancesFromSource) {
-            int closestNotInSptSet = -1;
-            int closestDistance = Integer.MAX_VALUE;
-            for (Map.Entry<Integer, Integer> distanceFromSource : distancesFromSource.entrySet()) {
-                int destination = distanceFromSource.getKey();
-                int distance = distanceFromSource.getValue();
-                if (distance <= closestDistance && !sptSet.contains(destination)) {
-                    closestNotInSptSet = destination;
-                    closestDistance = distance;
-                }
+    }
+
+    /**
+     * The shortest path lengths the matching reads: one dense row per drop-off point with a column per pickup point,
+     * and the length of each trip. Rows and columns are looked up by node. Distances that would end after the last
+     * trip starts are left as {@link Integer#MAX_VALUE}, as no trip could follow over them.
+     */
+    private static class DistanceMatrix {
+        private final int[] rowOf;
+        private final int[] columnOf;
+        private final int[][] rows;
+        private final int[] tripLengths;
+
+        private DistanceMatrix(int numNodes, int[] pickups, int[] dropOffs, int numTrips) {
+            this.rowOf = new int[numNodes + 1];
+            this.columnOf = new int[numNodes + 1];
+            Arrays.fill(this.rowOf, -1);
+            Arrays.fill(this.columnOf, -1);
+            for (int i = 0; i < dropOffs.length; i++) {
+                this.rowOf[dropOffs[i]] = i;
+            }
+            for (int i = 0; i < pickups.length; i++) {
+                this.columnOf[pickups[i]] = i;
             }
-            return closestNotInSptSet;
+            this.rows = new int[dropOffs.length][];
+            this.tripLengths = new int[numTrips];
         }
 
+        /**
+         * Returns the distances from {@code dropOff} to the pickup points, indexed by {@link #column}.
+         */
+        int[] row(int dropOff) {
+            return this.rows[this.rowOf[dropOff]];
+        }
+
+        int column(int pickup) {
+            return this.columnOf[pickup];
+        }
+
+        int tripLength(int trip) {
+            return this.tripLengths[trip];
+        }
+    }
+
+    private interface Visitor {
+        boolean accept(int node, int distance);
+    }
+
+    private static class LongHeap {
+        private long[] values;
+        private int size;
+
+        private LongHeap(int initialCapacity) {
+            this.values = new long[Math.max(initialCapacity, 1)];
+            this.size = 0;
+        }
+
+        boolean isEmpty() {
+            return this.size == 0;
+        }
+
+        void clear() {
+            this.size = 0;
+        }
+
+        void push(long value) {
+            if (this.size == this.values.length) {
+                this.values = Arrays.copyOf(this.values, this.size * 2);
+            }
+            int i = this.size++;
+            while (i > 0 && this.values[(i - 1) >>> 1] > value) {
+                this.values[i] = this.values[(i - 1) >>> 1];
+                i = (i - 1) >>> 1;
+            }
+            this.values[i] = value;
+        }
+
+        long pop() {
+            final long top = this.values[0];
+            final long last = this.values[--this.size];
+            int i = 0;
+            int child;
+            while ((child = 2 * i + 1) < this.size) {
+                if (child + 1 < this.size && this.values[child + 1] < this.values[child]) child++;
+                if (this.values[child] >= last) break;
+                this.values[i] = this.values[child];
+                i = child;
+            }
+            this.values[i] = last;
+            return top;
+        }
     }
 
     private static class Trip {
@@ -116,12 +397,10 @@ public class RideHailing {
         final int destination;
         final int time;
 
-        public Trip(String tripLine) {
-            final Scanner scanner = new Scanner(tripLine);
-            source = scanner.nextInt();
-            destination = scanner.nextInt();
-            time = scanner.nextInt();
-            scanner.close();
+        public Trip(FastReader reader) {
+            source = reader.nextInt();
+            destination = reader.nextInt();
+            time = reader.nextInt();
         }
 
         @Override
@@ -130,64 +409,483 @@ public class RideHailing {
         }
     }
 
-    public static void main(String[] args) {
-        final Scanner scanner = new Scanner(System.in);
-
-        final Scanner firstLineScanner = new Scanner(scanner.nextLine());
-        final int numDestinations = firstLineScanner.nextInt();
-        final int numRoads = firstLineScanner.nextInt();
-        final int numTrips = firstLineScanner.nextInt();
-        firstLineScanner.close();
-
-        final Graph graph = readGraph(scanner, numDestinations, numRoads);
-        final List<Trip> trips = readTrips(scanner, numTrips);
-
-        int numDrivers = 0;
-
-        while(!trips.isEmpty()) {
-            numDrivers++;
-            Trip mostRecentTrip = trips.remove(trips.size() - 1);
-            do {
-                int currentTime = mostRecentTrip.time + graph.shortestPathLength(mostRecentTrip.source, mostRecentTrip.destination);
-                int currentPosition = mostRecentTrip.destination;
-                int nextPossibleTripIndex = -1;
-                for (int i = trips.size() - 1; i >= 0 && nextPossibleTripIndex == -1; i--) {
-                    final Trip trip = trips.get(i);
-                    final int timeAtArrival = currentTime + graph.shortestPathLength(currentPosition, trip.source);
-                    if (timeAtArrival == trip.time) {
-                        nextPossibleTripIndex = i;
+    /**
+     * Which trips one driver can take one after the other: trip {@code b} can follow trip {@code a} when a driver
+     * finishing {@code a} can reach the start of {@code b} by its pickup time. With the trips sorted by time, the first
+     * that can follow {@code a} is {@code windowStarts[a]}.
+     */
+    private static class TripCompatibility {
+        final int size;
+        final int[] windowStarts;
+        private final int[] pickupColumns;
+        final int[] times;
+        final long[] dropOffTimes;
+        private final int[][] fromDestinations;
+
+        /**
+         * @param trips trips sorted by time, as given to {@link Graph#precompute}
+         */
+        private TripCompatibility(List<Trip> trips, DistanceMatrix distances) {
+            this.size = trips.size();
+            this.pickupColumns = new int[this.size];
+            this.times = new int[this.size];
+            this.dropOffTimes = new long[this.size];
+            this.fromDestinations = new int[this.size][];
+            for (int a = 0; a < this.size; a++) {
+                final Trip trip = trips.get(a);
+                this.pickupColumns[a] = distances.column(trip.source);
+                this.fromDestinations[a] = distances.row(trip.destination);
+                this.times[a] = trip.time;
+                this.dropOffTimes[a] = addDistance(trip.time, distances.tripLength(a));
+            }
+            this.windowStarts = new int[this.size];
+            for (int a = 0; a < this.size; a++) {
+                int b = firstAtOrAfter(this.times, this.dropOffTimes[a]);
+                while (b < this.size && !this.canFollow(a, b)) {
+                    b++;
+                }
+                this.windowStarts[a] = b;
+            }
+        }
+
+        /**
+         * Returns whether trip {@code b} can follow trip {@code a}. Of two trips at the same time that could follow
+         * each other, only the later in the list follows the earlier.
+         */
+        boolean canFollow(int a, int b) {
+            return b != a && this.reachableInTime(a, b)
+                    && !(this.times[b] == this.times[a] && b < a && this.reachableInTime(b, a));
+        }
+
+        private boolean reachableInTime(int a, int b) {
+            return addDistance(this.dropOffTimes[a], this.fromDestinations[a][this.pickupColumns[b]]) <= this.times[b];
+        }
+
+        private static long addDistance(long time, int distance) {
+            return time == Long.MAX_VALUE || distance == Integer.MAX_VALUE ? Long.MAX_VALUE : time + distance;
+        }
+
+        private static int firstAtOrAfter(int[] times, long time) {
+            int low = 0;
+            int high = times.length;
+            while (low < high) {
+                final int mid = (low + high) >>> 1;
+                if (times[mid] < time) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return low;
+        }
+    }
+
+    /**
+     * Hopcroft-Karp maximum bipartite matching of each trip to a trip that can follow it, started from a greedy
+     * matching. The fewest drivers is the number of trips less its size. Followers are never listed; the searches
+     * walk the trips from a window start, skipping those already used this phase through union-find pointers.
+     */
+    private static class HopcroftKarp {
+
+        private static final int UNMATCHED = -1;
+        private static final int UNREACHED = Integer.MAX_VALUE;
+
+        private final TripCompatibility graph;
+        private final int size;
+        private final int[] rightOf;
+        private final int[] leftOf;
+        private final int[] layer;
+        private final int[] reachedFrom;
+        private final int[] queue;
+        private final int[] byLayer;
+        private final int[] layerStarts;
+        private final int[] skip;
+        private final int[] nextPosition;
+        private final int[] stack;
+        private final int[] chosen;
+
+        private HopcroftKarp(TripCompatibility graph) {
+            this.graph = graph;
+            this.size = graph.size;
+            this.rightOf = new int[this.size];
+            this.leftOf = new int[this.size];
+            Arrays.fill(this.rightOf, UNMATCHED);
+            Arrays.fill(this.leftOf, UNMATCHED);
+            this.layer = new int[this.size];
+            this.reachedFrom = new int[this.size];
+            this.queue = new int[this.size];
+            this.byLayer = new int[this.size];
+            this.layerStarts = new int[this.size + 2];
+            this.skip = new int[this.size + 1];
+            this.nextPosition = new int[this.size];
+            this.stack = new int[this.size];
+            this.chosen = new int[this.size];
+        }
+
+        static int maximumMatching(TripCompatibility graph) {
+            final HopcroftKarp matcher = new HopcroftKarp(graph);
+            int matchingSize = matcher.matchGreedily();
+            while (matcher.buildLayers()) {
+                matcher.groupByLayer();
+                for (int a = 0; a < matcher.size; a++) {
+                    if (matcher.rightOf[a] == UNMATCHED && matcher.augment(a)) {
+                        matchingSize++;
+                    }
+                }
+            }
+            return matchingSize;
+        }
+
+        /**
+         * Gives each trip, in time order, the untaken predecessor that drops off last and can reach it in time, and
+         * returns the number of trips matched.
+         */
+        private int matchGreedily() {
+            final int[] byDropOff = IntStream.range(0, this.size).boxed()
+                    .sorted(Comparator.comparingLong(a -> this.graph.dropOffTimes[a]))
+                    .mapToInt(Integer::intValue)
+                    .toArray();
+            // skip[q] == q while the trip at position q - 1 of byDropOff is not yet taken
+            for (int q = 0; q <= this.size; q++) {
+                this.skip[q] = q;
+            }
+            int numMatched = 0;
+            int numDroppedOff = 0;
+            for (int b = 0; b < this.size; b++) {
+                while (numDroppedOff < this.size && this.graph.dropOffTimes[byDropOff[numDroppedOff]] <= this.graph.times[b]) {
+                    numDroppedOff++;
+                }
+                for (int q = find(this.skip, numDroppedOff); q > 0; q = find(this.skip, q - 1)) {
+                    final int a = byDropOff[q - 1];
+                    if (this.graph.canFollow(a, b)) {
+                        this.skip[q] = q - 1;
+                        this.rightOf[a] = b;
+                        this.leftOf[b] = a;
+                        numMatched++;
+                        break;
+                    }
+                }
+            }
+            return numMatched;
+        }
+
+        /**
+         * Layers the left vertices by breadth-first search from the unmatched ones along alternating paths, recording
+         * the layer each right vertex is first reached from, and returns whether any augmenting path exists.
+         */
+        private boolean buildLayers() {
+            int head = 0;
+            int tail = 0;
+            for (int a = 0; a < this.size; a++) {
+                if (this.rightOf[a] == UNMATCHED) {
+                    this.layer[a] = 0;
+                    this.queue[tail++] = a;
+                } else {
+                    this.layer[a] = UNREACHED;
+                }
+                this.reachedFrom[a] = UNREACHED;
+                this.skip[a] = a;
+            }
+            this.skip[this.size] = this.size;
+            boolean foundFreeRight = false;
+            while (head < tail) {
+                final int a = this.queue[head++];
+                for (int b = find(this.skip, this.graph.windowStarts[a]); b < this.size; b = find(this.skip, b + 1)) {
+                    if (this.graph.canFollow(a, b)) {
+                        this.skip[b] = b + 1;
+                        tail = this.reach(a, b, tail);
+                        foundFreeRight |= this.leftOf[b] == UNMATCHED;
+                    }
+                }
+            }
+            return foundFreeRight;
+        }
+
+        private int reach(int a, int b, int tail) {
+            this.reachedFrom[b] = this.layer[a];
+            final int next = this.leftOf[b];
+            if (next != UNMATCHED && this.layer[next] == UNREACHED) {
+                this.layer[next] = this.layer[a] + 1;
+                this.queue[tail++] = next;
+            }
+            return tail;
+        }
+
+        /**
+         * Sorts the reached right vertices by the layer they were reached from and then by index, and readies the
+         * per-phase cursors of the depth-first search.
+         */
+        private void groupByLayer() {
+            Arrays.fill(this.layerStarts, 0);
+            int numLayers = 0;
+            for (int b = 0; b < this.size; b++) {
+                if (this.reachedFrom[b] != UNREACHED) {
+                    this.layerStarts[this.reachedFrom[b] + 1]++;
+                    numLayers = Math.max(numLayers, this.reachedFrom[b] + 1);
+                }
+            }
+            for (int l = 1; l <= this.size + 1; l++) {
+                this.layerStarts[l] += this.layerStarts[l - 1];
+            }
+            final int[] fill = Arrays.copyOf(this.layerStarts, numLayers);
+            for (int b = 0; b < this.size; b++) {
+                if (this.reachedFrom[b] != UNREACHED) {
+                    this.byLayer[fill[this.reachedFrom[b]]++] = b;
+                }
+            }
+            final int numReached = this.layerStarts[numLayers];
+            for (int p = 0; p <= numReached; p++) {
+                this.skip[p] = p;
+            }
+            Arrays.fill(this.nextPosition, -1);
+        }
+
+        /**
+         * Depth-first search for an augmenting path from the unmatched left vertex {@code start} through successive
+         * layers, flipping the path into the matching if one is found. Kept iterative so long chains of trips cannot
+         * overflow the stack.
+         */
+        private boolean augment(int start) {
+            int depth = 0;
+            this.stack[depth++] = start;
+            while (depth > 0) {
+                final int a = this.stack[depth - 1];
+                final int b = this.nextCandidate(a);
+                if (b == UNMATCHED) {
+                    this.layer[a] = UNREACHED;
+                    depth--;
+                } else if (this.leftOf[b] == UNMATCHED) {
+                    this.chosen[depth - 1] = b;
+                    for (int i = 0; i < depth; i++) {
+                        this.rightOf[this.stack[i]] = this.chosen[i];
+                        this.leftOf[this.chosen[i]] = this.stack[i];
                     }
+                    return true;
+                } else {
+                    this.chosen[depth - 1] = b;
+                    this.stack[depth++] = this.leftOf[b];
                 }
-                mostRecentTrip = nextPossibleTripIndex == -1 ? null : trips.remove(nextPossibleTripIndex);
-            } while(mostRecentTrip != null);
+            }
+            return false;
+        }
+
+        /**
+         * Returns a right vertex not yet used this phase that {@code a} can be matched to on a shortest augmenting
+         * path, marking it used, or {@link #UNMATCHED} if none is left.
+         */
+        private int nextCandidate(int a) {
+            final int l = this.layer[a];
+            if (l == UNREACHED) return UNMATCHED;
+            final int layerEnd = this.layerStarts[l + 1];
+            if (this.nextPosition[a] == -1) {
+                this.nextPosition[a] = this.firstPositionAtOrAfter(this.layerStarts[l], layerEnd, this.graph.windowStarts[a]);
+            }
+            int p = find(this.skip, this.nextPosition[a]);
+            while (p < layerEnd && !this.graph.canFollow(a, this.byLayer[p])) {
+                p = find(this.skip, p + 1);
+            }
+            this.nextPosition[a] = p;
+            if (p >= layerEnd) return UNMATCHED;
+            this.skip[p] = p + 1;
+            return this.byLayer[p];
         }
 
-        System.out.println(numDrivers);
-        scanner.close();
+        private int firstPositionAtOrAfter(int from, int to, int index) {
+            int low = from;
+            int high = to;
+            while (low < high) {
+                final int mid = (low + high) >>> 1;
+                if (this.byLayer[mid] < index) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return low;
+        }
+
+        /**
+         * Follows the skip pointers from {@code i} to the first entry not yet skipped, compressing the path behind it.
+         */
+        private static int find(int[] skip, int i) {
+            int root = i;
+            while (skip[root] != root) {
+                root = skip[root];
+            }
+            while (skip[i] != root) {
+                final int next = skip[i];
+                skip[i] = root;
+                i = next;
+            }
+            return root;
+        }
     }
 
-    private static List<Trip> readTrips(Scanner scanner, int numTrips) {
+    /**
+     * Assigns trips to drivers one at a time as they come in, in time order, without knowing later trips. Each trip
+     * goes to the idle driver closest to its pickup point that can get there in time, or to a new driver if none can.
+     * Idle drivers are grouped by where they are; drivers still on a trip wait in a queue ordered by when they finish.
+     * The closest driver comes from a search backwards from the pickup point that stops at the first one able to make
+     * it, or once even the driver idle the longest could not. The trip's length comes from a search forwards that
+     * stops at its drop-off point, unless the graph is small enough for a row of distances from every node to fit in
+     * {@link #CACHED_DISTANCES}, in which case whole rows are kept as they are computed.
+     */
+    private static class Dispatcher {
+
+        private static final int CACHED_DISTANCES = 1 << 24;
+
+        private final Graph graph;
+        private final Map<Integer, int[]> distancesFrom;
+        private final PriorityQueue<Driver> busyDrivers;
+        private final Map<Integer, ArrayDeque<Driver>> idleDrivers;
+        private final TreeMap<Long, Integer> idleCounts;
+        private int numDrivers;
+        private long lastTripTime;
+
+        private Dispatcher(Graph graph) {
+            this.graph = graph;
+            this.distancesFrom = (long) (graph.numNodes + 1) * (graph.numNodes + 1) <= CACHED_DISTANCES ? new HashMap<>() : null;
+            this.busyDrivers = new PriorityQueue<>(Comparator.comparingLong(driver -> driver.freeAt));
+            this.idleDrivers = new HashMap<>();
+            this.idleCounts = new TreeMap<>();
+            this.numDrivers = 0;
+            this.lastTripTime = Long.MIN_VALUE;
+        }
+
+        private static class Driver {
+            final int id;
+            int position;
+            long freeAt;
+
+            private Driver(int id) {
+                this.id = id;
+            }
+        }
+
+        private int tripLength(Trip trip) {
+            if (this.distancesFrom == null) {
+                final long dropOff = this.graph.search(trip.source, Long.MAX_VALUE, false, (node, distance) -> node == trip.destination);
+                return dropOff == -1 ? Integer.MAX_VALUE : (int) (dropOff >>> 32);
+            }
+            int[] distances = this.distancesFrom.get(trip.source);
+            if (distances != null) {
+                DISTANCE_CACHE_HITS.increment();
+            } else {
+                DISTANCE_CACHE_MISSES.increment();
+                distances = this.graph.doDijkstras(trip.source, Long.MAX_VALUE);
+                this.distancesFrom.put(trip.source, distances);
+            }
+            return distances[trip.destination];
+        }
+
+        /**
+         * Returns the number of the driver given {@code trip}, throwing {@link IllegalArgumentException} if it starts
+         * before the trip assigned last, since drivers already freed up by then could not be told apart.
+         */
+        int assign(Trip trip) {
+            if (trip.time < this.lastTripTime) {
+                throw new IllegalArgumentException(String.format("trips must come in time order, but %s comes after a trip at t = %d", trip, this.lastTripTime));
+            }
+            this.lastTripTime = trip.time;
+            while (!this.busyDrivers.isEmpty() && this.busyDrivers.peek().freeAt <= trip.time) {
+                final Driver driver = this.busyDrivers.poll();
+                this.idleDrivers.computeIfAbsent(driver.position, position -> new ArrayDeque<>()).addLast(driver);
+                this.idleCounts.merge(driver.freeAt, 1, Integer::sum);
+            }
+            Driver driver = null;
+            if (!this.idleCounts.isEmpty()) {
+                // drivers at one position are queued in the order they became free, so only the first can be the best
+                final long closest = this.graph.search(trip.source, trip.time - this.idleCounts.firstKey(), true, (node, distance) -> {
+                    final ArrayDeque<Driver> atNode = this.idleDrivers.get(node);
+                    return atNode != null && atNode.peekFirst().freeAt + distance <= trip.time;
+                });
+                if (closest != -1) {
+                    final ArrayDeque<Driver> atNode = this.idleDrivers.get((int) closest);
+                    driver = atNode.pollFirst();
+                    if (atNode.isEmpty()) {
+                        this.idleDrivers.remove(driver.position);
+                    }
+                    this.idleCounts.computeIfPresent(driver.freeAt, (freeAt, count) -> count == 1 ? null : count - 1);
+                }
+            }
+            if (driver == null) {
+                driver = new Driver(++this.numDrivers);
+            }
+            final int tripLength = this.tripLength(trip);
+            // a driver sent off on a trip that cannot be completed is never free again
+            if (tripLength != Integer.MAX_VALUE) {
+                driver.position = trip.destination;
+                driver.freeAt = (long) trip.time + tripLength;
+                this.busyDrivers.add(driver);
+            }
+            return driver.id;
+        }
+    }
+
+    public static void main(String[] args) {
+        run(args, System.in, System.out);
+    }
+
+    public static void run(String[] args, InputStream in, OutputStream out) {
+        final long readStart = READ_TIME.start();
+        final FastReader reader = new FastReader(in);
+
+        final int numDestinations = reader.nextInt();
+        final int numRoads = reader.nextInt();
+        final int numTrips = reader.nextInt();
+
+        final Graph graph = readGraph(reader, numDestinations, numRoads);
+        if (Arrays.asList(args).contains("--online")) {
+            READ_TIME.stop(readStart);
+            final long dispatchStart = DISPATCH_TIME.start();
+            dispatchOnline(reader, graph, numTrips, out);
+            DISPATCH_TIME.stop(dispatchStart);
+            return;
+        }
+        final List<Trip> trips = readTrips(reader, numTrips);
+        READ_TIME.stop(readStart);
+        final DistanceMatrix distances = graph.precompute(trips);
+
+        final long matchingStart = MATCHING_TIME.start();
+        final int numDrivers = trips.size() - HopcroftKarp.maximumMatching(new TripCompatibility(trips, distances));
+        MATCHING_TIME.stop(matchingStart);
+
+        final PrintWriter writer = new PrintWriter(new OutputStreamWriter(out));
+        writer.println(numDrivers);
+        writer.flush();
+    }
+
+    /**
+     * Reads trips in time order and prints each one with the number of the driver it is given as soon as it is
+     * assigned, then the total number of drivers.
+     */
+    private static void dispatchOnline(FastReader reader, Graph graph, int numTrips, OutputStream out) {
+        final PrintWriter writer = new PrintWriter(new OutputStreamWriter(out), true);
+        final Dispatcher dispatcher = new Dispatcher(graph);
+        for (int i = 0; i < numTrips && reader.hasNext(); i++) {
+            final Trip trip = new Trip(reader);
+            writer.printf("%s: driver %d%n", trip, dispatcher.assign(trip));
+        }
+        writer.println(dispatcher.numDrivers);
+    }
+
+    private static List<Trip> readTrips(FastReader reader, int numTrips) {
         final List<Trip> trips = new ArrayList<>();
         for (int i = 0; i < numTrips; i++) {
-            final Trip trip = new Trip(scanner.nextLine());
+            final Trip trip = new Trip(reader);
             trips.add(trip);
         }
-        trips.sort((o1, o2) -> Integer.compare(o2.time, o1.time));
+        trips.sort(Comparator.comparingInt(trip -> trip.time));
         return trips;
     }
 
-    private static Graph readGraph(Scanner scanner, int numDestinations, int numRoads) {
-        final Graph graph = new Graph();
-        for (int i = 0; i < numDestinations; i++) {
-            graph.add(i + 1);
-        }
+    private static Graph readGraph(FastReader reader, int numDestinations, int numRoads) {
+        final Graph graph = new Graph(numDestinations);
         for (int i = 0; i < numRoads; i++) {
-            final Scanner roadLineScanner = new Scanner(scanner.nextLine());
-            final int source = roadLineScanner.nextInt();
-            final int destination = roadLineScanner.nextInt();
-            final int weight = roadLineScanner.nextInt();
+            final int source = reader.nextInt();
+            final int destination = reader.nextInt();
+            final int weight = reader.nextInt();
             graph.addEdge(source, destination, weight);
-            roadLineScanner.close();
         }
         return graph;
     }
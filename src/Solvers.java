@@ -0,0 +1,92 @@
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+
+/**
+ * Runs any of the solvers by subcommand, so they can ship as one jar with one entry point:
+ *
+ * <pre>
+ * java -jar solvers.jar logdb|ridehailing|records|speedometer|curvespeed [solver flags...] &lt; input
+ * java -jar solvers.jar train samples-01 samples-02 ...
+ * </pre>
+ * <p>
+ * {@code train} runs every {@code *.in} file of each samples directory through the solver its {@code solver} file
+ * names, throwing the output away. It exists to load and exercise every solver's classes in one run, for recording a
+ * class-data-sharing archive.
+ */
+public class Solvers {
+
+    interface Solver {
+        void run(String[] args, InputStream in, OutputStream out) throws IOException;
+    }
+
+    private static final Map<String, Solver> SOLVERS = new LinkedHashMap<>();
+
+    static {
+        SOLVERS.put("logdb", LogDB::run);
+        SOLVERS.put("ridehailing", RideHailing::run);
+        SOLVERS.put("records", RecordMatching::run);
+        SOLVERS.put("speedometer", DigitalSpeedometer::run);
+        SOLVERS.put("curvespeed", CurveSpeed::run);
+    }
+
+    /**
+     * Returns the solver run by subcommand {@code name}, or null if there is none.
+     */
+    static Solver solver(String name) {
+        return SOLVERS.get(name);
+    }
+
+    /**
+     * Returns the name of the solver that the samples in {@code directory} are for, as read from its {@code solver}
+     * file.
+     */
+    static String solverOf(Path directory) throws IOException {
+        return new String(Files.readAllBytes(directory.resolve("solver")), StandardCharsets.UTF_8).trim();
+    }
+
+    /**
+     * Returns the {@code *.in} files of {@code directory} in name order.
+     */
+    static List<Path> inputs(Path directory) throws IOException {
+        final List<Path> inputs = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*.in")) {
+            files.forEach(inputs::add);
+        }
+        Collections.sort(inputs);
+        return inputs;
+    }
+
+    private static void train(String[] directories) throws IOException {
+        final OutputStream discard = OutputStream.nullOutputStream();
+        for (String name : directories) {
+            final Path directory = Paths.get(name);
+            final Solver solver = solver(solverOf(directory));
+            if (solver == null) throw new IllegalArgumentException(directory + " names no known solver");
+            for (Path input : inputs(directory)) {
+                try (InputStream in = new FileInputStream(input.toFile())) {
+                    solver.run(new String[0], in, discard);
+                }
+            }
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length > 0 && args[0].equals("train")) {
+            train(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
+        final Solver solver = args.length > 0 ? solver(args[0]) : null;
+        if (solver == null) {
+            System.err.println("usage: solvers " + String.join("|", SOLVERS.keySet()) + " [flags...] < input");
+            System.err.println("       solvers train samples-directory...");
+            System.exit(2);
+        }
+        // standard input itself rather than System.in, which buffers it, so that a redirected file can be mapped
+        solver.run(Arrays.copyOfRange(args, 1, args.length), new FileInputStream(FileDescriptor.in), System.out);
+    }
+}